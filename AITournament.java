@@ -3,30 +3,91 @@ package j2.review02;
 // Eインポートを追加
 import j2.review02.s24kXXXX.*; // 自分のに変更
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 // AI同士の対戦シミュレーションを行い、勝率を計算するプログラム
 public class AITournament {
     //
-    // AI実行スレッド (Reversi.javaから移植し、コンソール用に修正)
+    // AIの1手分の計算 (使い回されるスレッドの上で実行される)
     //
-    public static class AIThread extends Thread {
+    public static class AITask implements Callable<Location> {
         private final AI ai; // 実行するAIインスタンス
         private final Board board; // 局面
-        private Location result; // 計算結果
+        private final CancellationToken token; // 時間超過時に計算を打ち切らせるためのトークン
+        private final long submitTime; // 投入した時刻 (ディスパッチ遅延の計測用)
 
-        public AIThread(AI ai, Board board) {
+        public AITask(AI ai, Board board, CancellationToken token) {
             this.ai = ai;
             // Boardをディープコピーして、AIが元のBoardを勝手に変更するのを防ぐ
             this.board = new Board(board); 
+            this.token = token;
+            this.submitTime = System.nanoTime();
         }
 
-        public void run() {
-            // ここでAI.getTime()が参照するスレッドの実行が始まる
-            result = ai.compute(board); 
+        public Location call() {
+            DISPATCH_NANOS.addAndGet(System.nanoTime() - submitTime);
+            // スレッドは使い回されるので、AI.getTime()の基準をここで取り直す
+            ai.startMove();
+            return ai.compute(board, token); 
         }
+    }
+
+    //
+    // AI実行用のスレッドプール
+    // 空いているスレッドを再利用し、時間超過で戻らないスレッドがあるときだけ新しく作る
+    //
+    private static final AtomicLong MOVES = new AtomicLong(); // 計算させた手の数
+    private static final AtomicLong THREADS_CREATED = new AtomicLong(); // 生成したスレッド数
+    private static final AtomicLong THREAD_CREATION_NANOS = new AtomicLong(); // スレッド生成にかかった時間
+    private static final AtomicLong DISPATCH_NANOS = new AtomicLong(); // 投入から実行開始までの時間の合計
+
+    private static final ExecutorService MOVE_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        long start = System.nanoTime();
+        Thread thread = new Thread(r, "AI-" + THREADS_CREATED.incrementAndGet());
+        // 時間超過で止まらないAIがいてもJVMを終了できるように
+        thread.setDaemon(true);
+        THREAD_CREATION_NANOS.addAndGet(System.nanoTime() - start);
+        return thread;
+    });
 
-        public Location getResult() {
-            return result;
+    //
+    // 対戦結果の集計 (複数の対戦スレッドから同時に記録できる)
+    //
+    public static class TournamentResult {
+        private final AtomicInteger blackWins = new AtomicInteger();
+        private final AtomicInteger whiteWins = new AtomicInteger();
+        private final AtomicInteger draws = new AtomicInteger();
+        private final AtomicInteger errors = new AtomicInteger();
+
+        // 1対戦の結果を記録し、表示用の文字列を返す
+        public String record(int result) {
+            if (result == 0) {
+                blackWins.incrementAndGet();
+                return "黒 (A) の勝ち";
+            } else if (result == 1) {
+                whiteWins.incrementAndGet();
+                return "白 (B) の勝ち";
+            } else if (result == -1) {
+                draws.incrementAndGet();
+                return "引き分け";
+            } else {
+                errors.incrementAndGet();
+                return "エラー/反則負け";
+            }
         }
+
+        public int getBlackWins() { return blackWins.get(); }
+        public int getWhiteWins() { return whiteWins.get(); }
+        public int getDraws() { return draws.get(); }
+        public int getErrors() { return errors.get(); }
     }
 
     //
@@ -79,12 +140,29 @@ public class AITournament {
         return ai;
     }
 
+    // 直前の手で終盤読みをしたAI (Egaroucid, A5_ver2) の読みの結果を返す。それ以外はnull
+    // AIの基底クラスは環境によって違うパッケージにあるので、Objectとして型を調べる
+    public static String getSolveReport(Object ai) {
+        if (ai instanceof Egaroucid) {
+            return ((Egaroucid) ai).getSolveReport();
+        }
+        if (ai instanceof A5_ver2) {
+            return ((A5_ver2) ai).getSolveReport();
+        }
+        return null;
+    }
+
+    // createAIで生成できるAIタイプか (0の「人」と未登録の番号は不可)
+    public static boolean isSupportedType(int type) {
+        return type >= 1 && type < PLAYER_NAMES.length;
+    }
+
     public static String getColorName(int color) {
         return (color == 0) ? "黒" : (color == 1 ? "白" : "" + color);
     }
     
     /**
-     * AI同士の1対戦を実行する。（AIスレッド使用版）
+     * AI同士の1対戦を実行する。（スレッドプール使用版）
      */
     public static int playOneGame(AI blackAI, AI whiteAI, boolean timeLimitedFlag) {
         Board board = new Board(); 
@@ -108,50 +186,97 @@ public class AITournament {
                 continue;
             }
             
-         // AIを別スレッドで実行
-            AIThread aiThread = new AIThread(currentAI, board);
-            aiThread.start();
+            // AIをスレッドプール上で実行
+            // 時間制限ありの場合は持ち時間(実時間)を期限とし、探索を打ち切らせる
+            CancellationToken token = timeLimitedFlag
+                ? new CancellationToken(AI.TIME_LIMIT)
+                : new CancellationToken();
+            Future<Location> future = MOVE_EXECUTOR.submit(new AITask(currentAI, board, token));
+            MOVES.incrementAndGet();
             
             Location move = null;
             // 最大待機時間をAIの持ち時間（5秒）より少し長く設定する（例: 5.5秒）
             // MyAIがTIME_LIMITをチェックしているため、この時間内に戻ることを期待する
             final long JOIN_TIME_MS = (long)(AI.TIME_LIMIT * 1.1 / 1.0e6); // 1.1倍 (5500ミリ秒)
 
-            
             try {
-                // AIスレッドの終了を待つ
-                aiThread.join(JOIN_TIME_MS); 
-            } catch (InterruptedException e) {
-                // メインスレッドが中断された場合
-                Thread.currentThread().interrupt(); // 割り込み状態を復元
-            }
-
-            // AIスレッドが生きている = 持ち時間内に戻らなかった
-            if (aiThread.isAlive()) {
-                // ここで Thread.stop() は呼ばず、時間切れとして処理を確定させる
+                // AIの計算の終了を待つ
+                move = future.get(JOIN_TIME_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // 持ち時間内に戻らなかった
+                // 打ち切りを要求してスレッドを解放させる (isCancelled()を見ないAIは走り続け、結果は無視される)
+                token.cancel();
+                future.cancel(true);
 
                 // 待機時間を超えて戻らない場合は、反則負けと見なす
-                // 注意: スレッドは走り続けるが、結果は無視される
                 System.out.printf("時間超過: %s (Join時間 %.2f秒超え) の反則負け\n", 
                     currentColorName, JOIN_TIME_MS / 1000.0);
                 
                 // MyAIなどの内部ロジックが5秒で停止するはずなので、
                 // ここに来た場合はAIのバグか、システムが遅すぎるかのどちらか
                 return (currentColor == 0) ? 1 : 0; // 相手の勝ち
+            } catch (ExecutionException e) {
+                // AIが例外を投げた場合は不正な手として扱う
+                System.out.printf("例外: %s (%s)\n", currentColorName, e.getCause());
+            } catch (InterruptedException e) {
+                // メインスレッドが中断された場合
+                token.cancel();
+                future.cancel(true);
+                Thread.currentThread().interrupt(); // 割り込み状態を復元
+                return -2;
             }
 
-            // 結果の取得と処理
-            move = aiThread.getResult();
-            
             if (move == null || !board.isLegal(move)) {
                 System.out.printf("不正な手: %s の反則負け (手: %s)\n", currentColorName, move);
                 return (currentColor == 0) ? 1 : 0; // 相手の勝ち
             }
+
+            // 終盤読みをしたAIは、その結果 (読みの結果・ノード数・時間) を表示する
+            String report = getSolveReport(currentAI);
+            if (report != null) {
+                System.out.printf("終盤読み: %s %s (%s)\n", currentColorName, move, report);
+            }
             
             board.put(move);
         }
     }
 
+    /**
+     * AI同士の対戦をnumGames回、並列に実行する。
+     * 同時に実行する対戦数はparallelism (通常はCPUコア数) までに制限する。
+     * 対戦ごとに新しいAIインスタンスを生成するので、AIの内部状態は対戦間で共有されない。
+     */
+    public static void playGamesParallel(int blackType, int whiteType, int numGames,
+            boolean timeLimitedFlag, int parallelism, TournamentResult results) {
+        ExecutorService gamePool = Executors.newFixedThreadPool(parallelism);
+        AtomicInteger finished = new AtomicInteger();
+
+        for (int i = 1; i <= numGames; i++) {
+            final int gameNumber = i;
+            gamePool.submit(() -> {
+                int result;
+                try {
+                    AI blackAI = createAI(blackType, 0, timeLimitedFlag);
+                    AI whiteAI = createAI(whiteType, 1, timeLimitedFlag);
+                    result = playOneGame(blackAI, whiteAI, timeLimitedFlag);
+                } catch (RuntimeException e) {
+                    // AIの例外は他の対戦に影響させず、エラーとして数える
+                    result = -2;
+                }
+                String message = results.record(result);
+                System.out.printf("対戦 %d/%d (%d局目の終了): %s\n",
+                    gameNumber, numGames, finished.incrementAndGet(), message);
+            });
+        }
+
+        gamePool.shutdown();
+        try {
+            gamePool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     //
     // mainメソッド
     //
@@ -167,7 +292,15 @@ public class AITournament {
         final int WHITE_AI_TYPE = 6;
         final int NUM_GAMES = 100;    
         final boolean TIME_LIMITED = true; 
+        final boolean PARALLEL = true; // 対戦を並列に実行するか
+        final int PARALLELISM = Runtime.getRuntime().availableProcessors(); // 同時に実行する対戦数
         
+        // AIタイプの確認 (AIはまだ生成しない。並列実行では対戦ごとに生成する)
+        if (!isSupportedType(BLACK_AI_TYPE) || !isSupportedType(WHITE_AI_TYPE)) {
+            System.err.println("致命的なエラー: トーナメントでサポートされていないAIタイプです。処理を中断します。");
+            return;
+        }
+
         String blackAIName = PLAYER_NAMES[BLACK_AI_TYPE];
         String whiteAIName = PLAYER_NAMES[WHITE_AI_TYPE];
         
@@ -175,40 +308,27 @@ public class AITournament {
         System.out.printf("黒 (A): %s (タイプ: %d) vs 白 (B): %s (タイプ: %d)\n", 
             blackAIName, BLACK_AI_TYPE, whiteAIName, WHITE_AI_TYPE);
         System.out.printf("総対戦回数: %d回, 時間制限: %s\n", NUM_GAMES, TIME_LIMITED ? "あり" : "なし");
-        System.out.println("------------------------------------");
-
-        // AIインスタンスの生成
-        AI blackAI = createAI(BLACK_AI_TYPE, 0, TIME_LIMITED);
-        AI whiteAI = createAI(WHITE_AI_TYPE, 1, TIME_LIMITED);
-
-        if (blackAI == null || whiteAI == null) {
-            System.err.println("致命的なエラー: AIインスタンスの生成に失敗しました。処理を中断します。");
-            return;
+        if (PARALLEL) {
+            System.out.printf("並列実行: 同時に%d対戦\n", PARALLELISM);
         }
+        System.out.println("------------------------------------");
 
-        int blackWins = 0; 
-        int whiteWins = 0; 
-        int draws = 0;
-        int errors = 0;
+        TournamentResult results = new TournamentResult();
         
         long totalStartTime = System.currentTimeMillis();
 
-        for (int i = 1; i <= NUM_GAMES; i++) {
-            System.out.printf("対戦 %d/%d: ", i, NUM_GAMES);
-            int result = playOneGame(blackAI, whiteAI, TIME_LIMITED);
+        if (PARALLEL) {
+            // 対戦ごとに新しいAIを生成して並列に実行
+            playGamesParallel(BLACK_AI_TYPE, WHITE_AI_TYPE, NUM_GAMES, TIME_LIMITED, PARALLELISM, results);
+        } else {
+            // AIインスタンスの生成 (逐次実行では全対戦で同じインスタンスを使う)
+            AI blackAI = createAI(BLACK_AI_TYPE, 0, TIME_LIMITED);
+            AI whiteAI = createAI(WHITE_AI_TYPE, 1, TIME_LIMITED);
 
-            if (result == 0) {
-                blackWins++;
-                System.out.println("黒 (A) の勝ち");
-            } else if (result == 1) {
-                whiteWins++;
-                System.out.println("白 (B) の勝ち");
-            } else if (result == -1) {
-                draws++;
-                System.out.println("引き分け");
-            } else {
-                errors++;
-                System.out.println("エラー/反則負け");
+            for (int i = 1; i <= NUM_GAMES; i++) {
+                System.out.printf("対戦 %d/%d: ", i, NUM_GAMES);
+                int result = playOneGame(blackAI, whiteAI, TIME_LIMITED);
+                System.out.println(results.record(result));
             }
         }
         
@@ -217,6 +337,10 @@ public class AITournament {
         // 結果表示
         System.out.println("\n--- 対戦結果 ---");
         System.out.printf("合計実行時間: %.2f秒\n", (totalEndTime - totalStartTime) / 1000.0);
+        int blackWins = results.getBlackWins();
+        int whiteWins = results.getWhiteWins();
+        int draws = results.getDraws();
+        int errors = results.getErrors();
         System.out.printf("黒 (A: %s) の勝利: %d回\n", blackAIName, blackWins);
         System.out.printf("白 (B: %s) の勝利: %d回\n", whiteAIName, whiteWins);
         System.out.printf("引き分け: %d回\n", draws);
@@ -232,5 +356,18 @@ public class AITournament {
             System.out.printf("白 (B) の勝率: %.2f%%\n", whiteWinRate);
         }
         System.out.println("----------------");
+        printExecutorStats();
+    }
+
+    // AI実行スレッドの統計を表示する
+    public static void printExecutorStats() {
+        long moves = MOVES.get();
+        long threads = THREADS_CREATED.get();
+        System.out.printf("AIの計算回数: %d手, 生成したスレッド: %d個 (生成時間 合計%.2fミリ秒)\n",
+            moves, threads, THREAD_CREATION_NANOS.get() / 1.0e6);
+        if (moves > 0) {
+            System.out.printf("投入から実行開始までの平均: %.3fミリ秒\n", DISPATCH_NANOS.get() / 1.0e6 / moves);
+        }
+        System.out.println("----------------");
     }
 }
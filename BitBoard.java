@@ -0,0 +1,329 @@
+package j2.review02;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * BitBoard - 64ビット整数2つで盤面を表すBoard互換クラス
+ *
+ * - 手番側(player)と相手側(opponent)の石をそれぞれlongで保持する
+ * - 合法手生成と反転石の計算はシフト演算で行う
+ * - undoは着手時に記録した反転マスクから盤面を復元する
+ * - 置換表用のZobristハッシュをput/pass/undoで差分更新する
+ *
+ * get/put/pass/undo/isLegal/enumerateLegalLocations/getCount/getCurrentColor
+ * はBoardと同じ意味で使えるので，AIは探索の入口で
+ * new BitBoard(board) に置き換えるだけでよい．
+ *
+ * 探索の内側ではlegalMoves()で合法手をビットマスクとして受け取り，
+ * 最下位ビットから順にput(int)すればLocationやArrayListを生成せずに済む．
+ *
+ * マス番号は y * 8 + x (ビット0が(0, 0)，ビット63が(7, 7))．
+ */
+public class BitBoard {
+
+    private static final long NOT_FILE_A = 0xfefefefefefefefeL; // x != 0 のマス
+    private static final long NOT_FILE_H = 0x7f7f7f7f7f7f7f7fL; // x != 7 のマス
+    private static final int INITIAL_HISTORY = 128;
+    private static final int PASS = -1;
+
+    // 64マス分のLocationを使い回す
+    private static final Location[] LOCATIONS = new Location[64];
+    static {
+        for (int square = 0; square < 64; square++) {
+            LOCATIONS[square] = new Location(square & 7, square >>> 3);
+        }
+    }
+
+    // Zobristハッシュの乱数表 (石の色ごと，マスごと)
+    private static final long[][] ZOBRIST = new long[2][64];
+    private static final long[] ZOBRIST_FLIP = new long[64]; // 黒白を入れ替えるときのXOR
+    private static final long ZOBRIST_SIDE; // 白番のときにXORする
+    static {
+        Random random = new Random(0x5eed2024L); // 実行ごとに同じ値になるよう固定
+        for (int square = 0; square < 64; square++) {
+            ZOBRIST[0][square] = random.nextLong();
+            ZOBRIST[1][square] = random.nextLong();
+            ZOBRIST_FLIP[square] = ZOBRIST[0][square] ^ ZOBRIST[1][square];
+        }
+        ZOBRIST_SIDE = random.nextLong();
+    }
+
+    private long player;   // 手番側の石
+    private long opponent; // 相手側の石
+    private int currentColor;
+    private long hash;     // 局面のZobristハッシュ
+
+    // 着手履歴 (パスの場合はマス番号にPASSを入れる)
+    private int[] historySquare;
+    private long[] historyFlipped;
+    private long[] historyHash;
+    private int historySize;
+
+    // 初期局面を生成する．
+    public BitBoard() {
+        this.player = (1L << 28) | (1L << 35);   // 黒: (4, 3), (3, 4)
+        this.opponent = (1L << 27) | (1L << 36); // 白: (3, 3), (4, 4)
+        this.currentColor = 0;
+        this.hash = computeHash();
+        this.historySquare = new int[INITIAL_HISTORY];
+        this.historyFlipped = new long[INITIAL_HISTORY];
+        this.historyHash = new long[INITIAL_HISTORY];
+    }
+
+    // Boardの局面をコピーして生成する．履歴は引き継がない．
+    public BitBoard(Board board) {
+        this.currentColor = board.getCurrentColor();
+        long black = 0;
+        long white = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                int cell = board.get(x, y);
+                if (cell == 0) {
+                    black |= 1L << (y * 8 + x);
+                } else if (cell == 1) {
+                    white |= 1L << (y * 8 + x);
+                }
+            }
+        }
+        this.player = currentColor == 0 ? black : white;
+        this.opponent = currentColor == 0 ? white : black;
+        this.hash = computeHash();
+        this.historySquare = new int[INITIAL_HISTORY];
+        this.historyFlipped = new long[INITIAL_HISTORY];
+        this.historyHash = new long[INITIAL_HISTORY];
+    }
+
+    // BitBoardを履歴ごとコピーして生成する．
+    public BitBoard(BitBoard other) {
+        this.player = other.player;
+        this.opponent = other.opponent;
+        this.currentColor = other.currentColor;
+        this.hash = other.hash;
+        this.historySquare = other.historySquare.clone();
+        this.historyFlipped = other.historyFlipped.clone();
+        this.historyHash = other.historyHash.clone();
+        this.historySize = other.historySize;
+    }
+
+    // 色colorの相手の色を返す．
+    public static int flip(int color) {
+        return Board.flip(color);
+    }
+
+    // マス番号squareに対応するLocationを返す．
+    public static Location location(int square) {
+        return LOCATIONS[square];
+    }
+
+    // Locationのマス番号を返す．
+    public static int square(Location location) {
+        return location.y() * 8 + location.x();
+    }
+
+    // 手番の色を返す．
+    public int getCurrentColor() {
+        return currentColor;
+    }
+
+    // マス(x, y)の石の色を返す．空きマスの場合は-1．
+    public int get(int x, int y) {
+        long bit = 1L << (y * 8 + x);
+        if ((player & bit) != 0) {
+            return currentColor;
+        }
+        if ((opponent & bit) != 0) {
+            return flip(currentColor);
+        }
+        return -1;
+    }
+
+    // 局面(石の配置と手番)のZobristハッシュを返す．
+    public long getHash() {
+        return hash;
+    }
+
+    // 手番側の石のマスクを返す．
+    public long getPlayer() {
+        return player;
+    }
+
+    // 相手側の石のマスクを返す．
+    public long getOpponent() {
+        return opponent;
+    }
+
+    // 色colorの石の数を返す．
+    public int getCount(int color) {
+        return Long.bitCount(color == currentColor ? player : opponent);
+    }
+
+    // 色colorの合法手の数を返す．手番に関係なく数え，局面は変更しない．
+    public int mobility(int color) {
+        return Long.bitCount(color == currentColor ? legalMoves(player, opponent) : legalMoves(opponent, player));
+    }
+
+    // 色colorの石のうち，空きマスに隣接する石(開放石)の数を返す．
+    public int frontier(int color) {
+        long empty = ~(player | opponent);
+        long adjacent = 0;
+        for (int dir = 0; dir < 8; dir++) {
+            adjacent |= shift(empty, dir);
+        }
+        return Long.bitCount((color == currentColor ? player : opponent) & adjacent);
+    }
+
+    // 手番側の合法手のマスクを返す．
+    public long legalMoves() {
+        return legalMoves(player, opponent);
+    }
+
+    // 手番側に合法手があるか．
+    public boolean isLegal() {
+        return legalMoves(player, opponent) != 0;
+    }
+
+    // マスlocationが手番側の合法手か．
+    public boolean isLegal(Location location) {
+        return (legalMoves(player, opponent) & (1L << square(location))) != 0;
+    }
+
+    // 手番側の合法手のリストを返す．
+    public ArrayList<Location> enumerateLegalLocations() {
+        long moves = legalMoves(player, opponent);
+        ArrayList<Location> locations = new ArrayList<>(Long.bitCount(moves));
+        while (moves != 0) {
+            int square = Long.numberOfTrailingZeros(moves);
+            locations.add(LOCATIONS[square]);
+            moves &= moves - 1;
+        }
+        return locations;
+    }
+
+    // マスlocationに手番側の石を置き，手番を交代する．
+    public void put(Location location) {
+        put(square(location));
+    }
+
+    // マス番号squareに手番側の石を置き，手番を交代する．
+    public void put(int square) {
+        long flipped = computeFlips(player, opponent, square);
+        pushHistory(square, flipped);
+
+        long h = hash ^ ZOBRIST[currentColor][square] ^ ZOBRIST_SIDE;
+        for (long f = flipped; f != 0; f &= f - 1) {
+            h ^= ZOBRIST_FLIP[Long.numberOfTrailingZeros(f)];
+        }
+        hash = h;
+
+        long newPlayer = player | flipped | (1L << square);
+        player = opponent & ~flipped;
+        opponent = newPlayer;
+        currentColor = flip(currentColor);
+    }
+
+    // パスして手番を交代する．
+    public void pass() {
+        pushHistory(PASS, 0);
+        hash ^= ZOBRIST_SIDE;
+
+        long tmp = player;
+        player = opponent;
+        opponent = tmp;
+        currentColor = flip(currentColor);
+    }
+
+    // 直前のput/passを取り消す．
+    public void undo() {
+        historySize--;
+        int square = historySquare[historySize];
+        long flipped = historyFlipped[historySize];
+        hash = historyHash[historySize];
+
+        long tmp = player;
+        player = opponent;
+        opponent = tmp;
+        currentColor = flip(currentColor);
+
+        if (square != PASS) {
+            player &= ~(flipped | (1L << square));
+            opponent |= flipped;
+        }
+    }
+
+    private void pushHistory(int square, long flipped) {
+        if (historySize == historySquare.length) {
+            historySquare = Arrays.copyOf(historySquare, historySize * 2);
+            historyFlipped = Arrays.copyOf(historyFlipped, historySize * 2);
+            historyHash = Arrays.copyOf(historyHash, historySize * 2);
+        }
+        historySquare[historySize] = square;
+        historyFlipped[historySize] = flipped;
+        historyHash[historySize] = hash;
+        historySize++;
+    }
+
+    // 盤面全体からZobristハッシュを計算する．
+    private long computeHash() {
+        long black = currentColor == 0 ? player : opponent;
+        long white = currentColor == 0 ? opponent : player;
+        long h = currentColor == 0 ? 0 : ZOBRIST_SIDE;
+        for (long b = black; b != 0; b &= b - 1) {
+            h ^= ZOBRIST[0][Long.numberOfTrailingZeros(b)];
+        }
+        for (long w = white; w != 0; w &= w - 1) {
+            h ^= ZOBRIST[1][Long.numberOfTrailingZeros(w)];
+        }
+        return h;
+    }
+
+    // 石pの側の合法手のマスクを返す．
+    static long legalMoves(long p, long o) {
+        long moves = 0;
+        for (int dir = 0; dir < 8; dir++) {
+            // 相手の石は1方向に最大6個まで連続する
+            long t = shift(p, dir) & o;
+            t |= shift(t, dir) & o;
+            t |= shift(t, dir) & o;
+            t |= shift(t, dir) & o;
+            t |= shift(t, dir) & o;
+            t |= shift(t, dir) & o;
+            moves |= shift(t, dir);
+        }
+        return moves & ~(p | o);
+    }
+
+    // 石pの側がマスsquareに置いたときに反転する石のマスクを返す．
+    static long computeFlips(long p, long o, int square) {
+        long move = 1L << square;
+        long flipped = 0;
+        for (int dir = 0; dir < 8; dir++) {
+            long line = 0;
+            long cur = shift(move, dir);
+            while ((cur & o) != 0) {
+                line |= cur;
+                cur = shift(cur, dir);
+            }
+            if ((cur & p) != 0) {
+                flipped |= line;
+            }
+        }
+        return flipped;
+    }
+
+    // ビット列bを方向dirに1マスずらす．盤外へ出たビットは捨てる．
+    private static long shift(long b, int dir) {
+        switch (dir) {
+            case 0: return (b << 1) & NOT_FILE_A;  // 右
+            case 1: return (b >>> 1) & NOT_FILE_H; // 左
+            case 2: return b << 8;                 // 下
+            case 3: return b >>> 8;                // 上
+            case 4: return (b << 9) & NOT_FILE_A;  // 右下
+            case 5: return (b >>> 9) & NOT_FILE_H; // 左上
+            case 6: return (b << 7) & NOT_FILE_H;  // 左下
+            case 7: return (b >>> 7) & NOT_FILE_A; // 右上
+            default: return 0;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package j2.review02;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CancellationToken - 1手分の計算を外から打ち切るためのトークン
+ *
+ * 呼び出し側はcancel()で即座に，または生成時に与えた期限(実時間)で
+ * 計算の打ち切りを要求する．AIは探索ループの中でisCancelled()を調べ，
+ * trueになったらそれまでに見つけた最善手を返す．
+ *
+ * isCancelled()は探索の各ノードから呼ばれる想定なので，volatileのフラグを
+ * 読むだけにしてある．期限はタイマースレッドがcancel()を呼ぶことで反映する．
+ */
+public class CancellationToken {
+
+    // 期限を過ぎたトークンを打ち切るタイマー (JVMの終了を妨げないようデーモンにする)
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "CancellationToken-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile boolean cancelled;
+
+    // 期限なしのトークンを生成する．
+    public CancellationToken() {
+    }
+
+    // 現在からtimeoutナノ秒後に打ち切られるトークンを生成する．
+    public CancellationToken(long timeout) {
+        TIMER.schedule(this::cancel, timeout, TimeUnit.NANOSECONDS);
+    }
+
+    // 計算の打ち切りを要求する．
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // 打ち切りが要求されたか，期限を過ぎたか．
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -3,6 +3,12 @@ package j2.review02;
 
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 // TODO: 使用者の環境に応じてパッケージ名を変更してください
 import j2.review02.s24kXXXX.AI; // 使用者の環境に応じて変更してください
 /**
@@ -11,17 +17,22 @@ import j2.review02.s24kXXXX.AI; // 使用者の環境に応じて変更してく
  * 主要アルゴリズム:
  * - Negascout (Principal Variation Search)
  * - Null Window Search (NWS)
- * - 置換表による枝刈り
+ * - 置換表による枝刈り (Zobristハッシュ)
  * - Multi-ProbCut (MPC)
- * - パターンベース評価関数
+ * - パターンベース評価関数 (PatternEvaluator，パターン番号は着手ごとに差分更新)
  * - 反復深化探索
+ * - Lazy SMPによる並列探索 (スレッド数指定時)
+ * - ビットボードによる盤面表現 (BitBoard)
+ * - 終盤の勝敗読み・完全読み (EndgameSolver，勝敗読みは証明数探索も選択可)
  */
 public class Egaroucid extends AI {
 
     // 探索設定
-    private static final int MAX_DEPTH = 15;
+    private static final int MAX_DEPTH = 20;
     private static final int ASPIRATION_WINDOW = 200;
     private static final int INFINITY = 100000;
+    private static final int MOBILITY_ORDER_PLY = 2; // ルートからこの手数未満のPV上の節点は着手可能数で並べ替える
+    static final int WIN_SCORE = 10000; // 終局で勝ったときの評価値 (これに石差を加える)
     
     // 評価関数の重み
     private static final int CORNER_WEIGHT = 1000;
@@ -34,61 +45,127 @@ public class Egaroucid extends AI {
     private static final int STABILITY_WEIGHT = 150;
     private static final int PARITY_WEIGHT = 10;
     
-    // パターンテーブル（エッジ＋2X）
+    // 辺の8マスの並びの数
     private static final int EDGE_PATTERN_SIZE = 6561; // 3^8
     
     // 置換表
-    private static class TranspositionEntry {
-        long hash;
-        int value;
-        int depth;
-        int flag; // 0: exact, 1: lower, 2: upper
-        int bestMove;
-        
-        TranspositionEntry() {
-            hash = 0;
-            value = 0;
-            depth = -1;
-            flag = 0;
-            bestMove = -1;
-        }
-    }
-    
-    private final TranspositionEntry[] transpositionTable;
-    private static final int TT_SIZE = 1 << 20; // 1M entries
-    private static final int TT_MASK = TT_SIZE - 1;
+    private static final int DEFAULT_TT_SIZE_MB = 16; // 1M entries
+    private final TranspositionTable transpositionTable;
+    
+    // 並列探索 (Lazy SMP)
+    private static final int DEFAULT_THREADS = 1;
+    private static final int HELPER_ORDER_NOISE = 60; // ヘルパーのルート手順に混ぜる乱数の幅
+    private static final long HELPER_JOIN_TIMEOUT_MS = 50; // メインの探索後にヘルパーの終了を待つ上限
+    // ヘルパーを動かすスレッドは全インスタンスで共有する (デーモンなので終了処理は要らず，
+    // 使われなくなったスレッドはしばらくすると消えるので，対局ごとにエンジンを作っても増え続けない)
+    private static final ExecutorService HELPER_POOL = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "Egaroucid-helper");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final int threads;
+    // ヘルパーの停止要求 (compute()ごとに作り直すので，前の手のヘルパーが動き出すことはない)
+    private CancellationToken helperStop = new CancellationToken();
+    private final MoveOrdering[] moveOrderings; // スレッドごとのヒストリー・キラー手 (手をまたいで使う)
+    private final Future<?>[] helperFutures;    // 直前のcompute()で動かしたヘルパー (idごと)
+    
+    // 時間管理 (探索を打ち切る上限は持ち時間の90%)
+    private static final double HARD_LIMIT_RATIO = 0.9;
+    private final TimeManager timeManager;
+    
+    // 終盤読み (WLD_EMPTIES以下で勝敗読み，EXACT_EMPTIES以下で完全読み)
+    private static final int WLD_EMPTIES = 22;
+    private static final int EXACT_EMPTIES = 18;
+    // 勝敗読みは予算のこの割合までで打ち切り，残りの時間を評価関数による探索に回す
+    private static final double WLD_TIME_RATIO = 0.5;
+    private final EndgameSolver endgameSolver;
+    private long solveLimit; // 終盤読みを打ち切る時間 (この手の計算開始からのナノ秒)
+    private String solveReport; // 直前の手を終盤読みで決めた場合の結果
+    
+    // 勝敗読みに使う証明器
+    public static final int PROVER_ALPHA_BETA = 0;   // EndgameSolverの(-1, 1)窓αβ
+    public static final int PROVER_PROOF_NUMBER = 1; // ProofNumberSearch (df-pn)
+    private int prover = PROVER_ALPHA_BETA;
+    private ProofNumberSearch proofNumberSearch; // 証明数探索を選んだときに生成する
+    
+    // Multi-ProbCutの係数 (nullならMPCを使わない)
+    // 係数ファイル(MpcParameters.DEFAULT_FILE)があれば読み込む (読むのはJVM内で1回だけで，
+    // インスタンスごとにそのコピーを持つ)
+    private MpcParameters mpc = MpcParameters.loadDefault();
     
     private final Random random;
-    private long startTime;
     private int nodesSearched;
-    private Location bestMove;
     
-    // パターン評価テーブル（簡易版）
-    private final int[][] edgeTable;
-    private static final int N_PHASES = 30;
+    // パターン評価 (辺・隅・斜めなどの表引き)
+    // 学習済みの重みファイル(PatternEvaluator.DEFAULT_FILE)があれば起動時に読み込み，
+    // そのときはパターンだけで評価する (表の値は最終石差の予測 * SCORE_PER_DISC)
+    // 表は重みファイルのものも既定のものもJVM内で1回だけ用意し，全インスタンスで共有する
+    static final int SCORE_PER_DISC = 100;
+    private static PatternEvaluator defaultPatterns; // 重みファイルがないときの表 (最初に生成したものを共有)
+    private final PatternEvaluator patternEvaluator;
+    private final boolean trainedPatterns;
+    private static final int N_PHASES = 30; // 着手可能数の重みを切り替える段階 (石数 / 2)
     
     public Egaroucid(int color, boolean timeLimitedFlag) {
+        this(color, timeLimitedFlag, DEFAULT_TT_SIZE_MB, DEFAULT_THREADS);
+    }
+    
+    // 置換表の大きさ(MB)を指定して生成する
+    public Egaroucid(int color, boolean timeLimitedFlag, int ttSizeMB) {
+        this(color, timeLimitedFlag, ttSizeMB, DEFAULT_THREADS);
+    }
+    
+    // 置換表の大きさ(MB)と探索スレッド数を指定して生成する
+    // threadsが2以上の場合はLazy SMPで並列に探索する
+    public Egaroucid(int color, boolean timeLimitedFlag, int ttSizeMB, int threads) {
         super(color, timeLimitedFlag);
         this.random = new Random();
-        this.transpositionTable = new TranspositionEntry[TT_SIZE];
-        for (int i = 0; i < TT_SIZE; i++) {
-            transpositionTable[i] = new TranspositionEntry();
-        }
-        this.edgeTable = new int[N_PHASES][EDGE_PATTERN_SIZE];
-        initializePatternTables();
+        this.transpositionTable = new TranspositionTable(ttSizeMB);
+        this.timeManager = new TimeManager(clock, (long) (TIME_LIMIT * HARD_LIMIT_RATIO), false);
+        this.endgameSolver = new EndgameSolver(ttSizeMB, this::isSolveStopped);
+        this.threads = Math.max(1, threads);
+        this.helperFutures = new Future<?>[this.threads];
+        this.moveOrderings = new MoveOrdering[this.threads];
+        for (int i = 0; i < this.threads; i++) {
+            this.moveOrderings[i] = new MoveOrdering();
+        }
+        PatternEvaluator trained = PatternEvaluator.loadDefault();
+        this.trainedPatterns = trained != null;
+        this.patternEvaluator = trained != null ? trained : getDefaultPatterns();
     }
     
-    // パターンテーブルの初期化
-    private void initializePatternTables() {
-        for (int phase = 0; phase < N_PHASES; phase++) {
-            for (int pattern = 0; pattern < EDGE_PATTERN_SIZE; pattern++) {
-                edgeTable[phase][pattern] = evaluateEdgePattern(pattern, phase);
-            }
+    // 既定のパターン評価を返す (最初の呼び出しで生成する)
+    private static synchronized PatternEvaluator getDefaultPatterns() {
+        if (defaultPatterns == null) {
+            defaultPatterns = createDefaultPatterns();
         }
+        return defaultPatterns;
+    }
+    
+    // 既定のパターンテーブルの生成
+    // 辺(EDGE_2X)の表は辺の8マスの並びで決め，隅・X打ち・C打ちはCORNER_3X3の表に入れる．
+    // どちらも段階によらないので，全段階で同じ表を共有する．
+    // 他の種類のパターンは使わない (重みファイルがないうちは番号の更新も表引きもしない)．
+    private static PatternEvaluator createDefaultPatterns() {
+        PatternEvaluator patternEvaluator = new PatternEvaluator(PatternEvaluator.EDGE_2X, PatternEvaluator.CORNER_3X3);
+        int[] edge = new int[PatternEvaluator.TABLE_SIZE[PatternEvaluator.EDGE_2X]];
+        for (int pattern = 0; pattern < edge.length; pattern++) {
+            // 番号の下8桁が辺の8マス (X打ちの2マスは使わない)
+            edge[pattern] = evaluateEdgePattern(pattern % EDGE_PATTERN_SIZE, 0);
+        }
+        int[] corner = new int[PatternEvaluator.TABLE_SIZE[PatternEvaluator.CORNER_3X3]];
+        for (int pattern = 0; pattern < corner.length; pattern++) {
+            corner[pattern] = evaluateCornerPattern(pattern);
+        }
+        for (int phase = 0; phase < PatternEvaluator.PHASES; phase++) {
+            patternEvaluator.setTable(phase, PatternEvaluator.EDGE_2X, edge);
+            patternEvaluator.setTable(phase, PatternEvaluator.CORNER_3X3, corner);
+        }
+        return patternEvaluator;
     }
     
     // エッジパターンの評価
-    private int evaluateEdgePattern(int pattern, int phase) {
+    private static int evaluateEdgePattern(int pattern, int phase) {
         int score = 0;
         int[] cells = new int[8];
         int temp = pattern;
@@ -118,35 +195,163 @@ public class Egaroucid extends AI {
         return score;
     }
     
+    // 隅の3x3の評価 (0: 隅，1と3: C打ち，4: X打ちのマス)
+    // 隅を取っていれば加点し，隅が空いているときのX打ち・C打ちは減点する
+    private static int evaluateCornerPattern(int pattern) {
+        int score = 0;
+        int corner = PatternEvaluator.cell(pattern, 0);
+        if (corner == 0) score += CORNER_WEIGHT;
+        else if (corner == 1) score -= CORNER_WEIGHT;
+        if (corner != 2) {
+            return score;
+        }
+        
+        int x = PatternEvaluator.cell(pattern, 4);
+        if (x == 0) score += X_SQUARE_PENALTY;
+        else if (x == 1) score -= X_SQUARE_PENALTY;
+        
+        int c1 = PatternEvaluator.cell(pattern, 1);
+        int c2 = PatternEvaluator.cell(pattern, 3);
+        if (c1 == 0) score += C_SQUARE_PENALTY;
+        else if (c1 == 1) score -= C_SQUARE_PENALTY;
+        if (c2 == 0) score += C_SQUARE_PENALTY;
+        else if (c2 == 1) score -= C_SQUARE_PENALTY;
+        
+        return score;
+    }
+    
     @Override
-    public Location compute(Board board) {
-        startTime = getTime();
-        nodesSearched = 0;
-        bestMove = null;
+    public Location compute(Board original) {
+        PatternBitBoard board = new PatternBitBoard(original, patternEvaluator);
+        helperStop = new CancellationToken();
+        transpositionTable.newSearch();
         
         int depth = calculateSearchDepth(board);
+        int empty = 64 - board.getCount(0) - board.getCount(1);
+        timeManager.startMove(empty, Long.bitCount(board.legalMoves()));
+        
+        // 終盤は終局まで読み切る
+        solveReport = null;
+        if (empty <= EXACT_EMPTIES) {
+            // 時間内に読み切れなかった場合も，読み切れた手の中の最善手があればそれを使う
+            solveLimit = timeManager.getHardLimit();
+            endgameSolver.solve(board);
+            solveReport = endgameSolver.getReport();
+            Location solved = endgameSolver.getBestMove();
+            if (solved != null) {
+                return solved;
+            }
+        } else if (empty <= WLD_EMPTIES) {
+            // 勝ちか引き分けを証明できた手はそのまま打つ
+            // 負けが確定した場合や読み切れなかった場合は評価関数による探索に任せる
+            // (そのための時間を残すよう，勝敗読みは予算の一部で打ち切る)
+            solveLimit = (long) (timeManager.getBudget() * WLD_TIME_RATIO);
+            int result;
+            Location solved;
+            boolean aborted;
+            if (prover == PROVER_PROOF_NUMBER) {
+                result = proofNumberSearch.solveWinLossDraw(board);
+                solveReport = proofNumberSearch.getReport();
+                solved = proofNumberSearch.getBestMove();
+                aborted = proofNumberSearch.isAborted();
+            } else {
+                result = endgameSolver.solveWinLossDraw(board);
+                solveReport = endgameSolver.getReport();
+                solved = endgameSolver.getBestMove();
+                aborted = endgameSolver.isAborted();
+            }
+            if (!aborted && result != EndgameSolver.LOSS && solved != null) {
+                return solved;
+            }
+        }
         
-        int value = 0;
-        for (int d = 2; d <= depth; d += 2) {
-            if (timeLimitedFlag && getTime() - startTime > TIME_LIMIT * 0.6) {
-                break;
+        // ヘルパースレッドは同じ局面を別々の深さ・手順で探索し，置換表だけを共有する
+        // 前の手の同じidのヘルパーがまだ終わっていなければ，そのヒストリー・キラー手は
+        // まだ書き換えられているので，新しいヘルパーには新しいものを使わせる
+        ArrayList<Searcher> helpers = new ArrayList<>();
+        for (int id = 1; id < threads; id++) {
+            if (helperFutures[id] != null && !helperFutures[id].isDone()) {
+                moveOrderings[id] = new MoveOrdering();
             }
-            
-            int alpha = value - ASPIRATION_WINDOW;
-            int beta = value + ASPIRATION_WINDOW;
-            
-            value = rootSearch(board, d, alpha, beta);
-            
-            if (value <= alpha || value >= beta) {
-                value = rootSearch(board, d, -INFINITY, INFINITY);
+            Searcher helper = new Searcher(new PatternBitBoard(board), id);
+            helpers.add(helper);
+            helperFutures[id] = HELPER_POOL.submit(() -> helper.iterativeDeepening(depth));
+        }
+        
+        Searcher main = new Searcher(board, 0);
+        main.iterativeDeepening(depth);
+        
+        // ヘルパーは停止要求から1024ノード以内に探索を抜けるが，待つのは一定時間までにする
+        // (間に合わなかったヘルパーは止まったまま終わり，ノード数はその時点のものを数える)
+        helperStop.cancel();
+        nodesSearched = main.nodes;
+        for (Searcher helper : helpers) {
+            try {
+                helperFutures[helper.id].get(HELPER_JOIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                // ヘルパーの失敗や遅れはメインスレッドの結果に影響させない
             }
+            nodesSearched += helper.nodes;
         }
         
-        return bestMove != null ? bestMove : selectBestMove(board);
+        return main.bestMove != null ? main.bestMove : selectBestMove(board);
+    }
+    
+    // 勝敗読みに使う証明器(PROVER_ALPHA_BETA または PROVER_PROOF_NUMBER)を選ぶ．
+    // 証明数探索の節点表は置換表と同じ大きさで確保する．
+    public void setProver(int prover) {
+        if (prover == PROVER_PROOF_NUMBER && proofNumberSearch == null) {
+            proofNumberSearch = new ProofNumberSearch((int) (transpositionTable.sizeInBytes() >> 20),
+                    this::isSolveStopped);
+        }
+        this.prover = prover;
+    }
+    
+    // 終盤読みを打ち切るべきか (打ち切りを要求されたか，この手の終盤読みの時間を使い切ったら)
+    private boolean isSolveStopped() {
+        return isCancelled() || timeLimitedFlag && timeManager.elapsed() > solveLimit;
+    }
+    
+    // 直前の手を終盤読みで決めた場合，その結果・ノード数・時間を返す．そうでなければnull．
+    public String getSolveReport() {
+        return solveReport;
+    }
+    
+    // Multi-ProbCutの係数を設定する．nullを渡すとMPCを使わない．
+    public void setMpcParameters(MpcParameters mpc) {
+        this.mpc = mpc;
+    }
+    
+    // パターン評価関数を返す (PatternBenchmarkで使う)
+    PatternEvaluator getPatternEvaluator() {
+        return patternEvaluator;
+    }
+    
+    // 局面boardを深さdepthまで反復深化で探索し，最善手のマス番号を返す (PatternTrainerで使う)
+    // 合法手がなければ-1を返す
+    int searchBestMove(BitBoard board, int depth) {
+        transpositionTable.newSearch();
+        Searcher searcher = new Searcher(new PatternBitBoard(board, patternEvaluator), 0);
+        searcher.iterativeDeepening(depth);
+        return searcher.bestMove != null ? BitBoard.square(searcher.bestMove) : -1;
+    }
+    
+    // 局面boardを深さ0からmaxDepthまで順に探索した評価値を返す (MpcCalibratorで使う)
+    // 前の局面の結果が混ざらないよう置換表を消去してから探索する
+    int[] searchValues(BitBoard board, int maxDepth) {
+        transpositionTable.clear();
+        Searcher searcher = new Searcher(new PatternBitBoard(board, patternEvaluator), 0);
+        int[] values = new int[maxDepth + 1];
+        for (int depth = 0; depth <= maxDepth; depth++) {
+            values[depth] = searcher.negascout(depth, -INFINITY, INFINITY);
+        }
+        return values;
     }
     
     // 探索深度の計算
-    private int calculateSearchDepth(Board board) {
+    private int calculateSearchDepth(BitBoard board) {
         int occupied = board.getCount(0) + board.getCount(1);
         int empty = 64 - occupied;
         
@@ -161,197 +366,423 @@ public class Egaroucid extends AI {
         }
     }
     
-    // ルートノードでの探索
-    private int rootSearch(Board board, int depth, int alpha, int beta) {
-        ArrayList<Location> moves = board.enumerateLegalLocations();
-        if (moves.isEmpty()) {
-            return 0;
+    /**
+     * 1スレッド分の探索状態
+     * 
+     * id 0 がメインスレッドで，TimeManagerの判断か打ち切り要求で反復深化を打ち切る．
+     * id 1 以降のヘルパーは奇数番が1手深く読み，ルートの手順に乱数を混ぜて
+     * メインと違う部分木を先に埋め，helperStopが打ち切られるまで探索を続ける．
+     * 打ち切りが決まるとstoppedを立てたままにし，どの節点も値を使わずにすぐ戻る
+     * (途中の値は置換表にもルートの最善手にも入れない)．
+     */
+    private class Searcher {
+        private final PatternBitBoard board;
+        private final int id;
+        private final Random random;
+        private final MpcParameters mpc;
+        private final MoveOrdering ordering;
+        private final CancellationToken stop; // ヘルパーの停止要求 (生成時のcompute()のもの)
+        private int nodes;
+        private int ply; // ルートからの手数
+        // ルートからの手数ごとの手の並び (探索中に配列を作らないように使い回す)
+        private final int[][] moveBuffer = new int[MoveOrdering.MAX_PLY][64];
+        private final int[] rootScores = new int[64];
+        private Location bestMove;
+        private boolean probing; // MPCの浅い探索中 (入れ子のMPCはしない)
+        private boolean stopped; // 打ち切りが決まった (以後の探索の値は使わない)
+        
+        Searcher(PatternBitBoard board, int id) {
+            this.board = board;
+            this.id = id;
+            this.random = new Random(id);
+            this.mpc = Egaroucid.this.mpc;
+            this.ordering = moveOrderings[id];
+            this.stop = helperStop;
+            ordering.newSearch();
+        }
+        
+        // 反復深化探索
+        void iterativeDeepening(int depth) {
+            int offset = id & 1;
+            int value = 0;
+            for (int d = 2 + offset; d <= depth + offset; d += 2) {
+                if (id == 0 ? isCancelled() || timeLimitedFlag && !timeManager.canStartIteration() : isStopped()) {
+                    break;
+                }
+                
+                int alpha = value - ASPIRATION_WINDOW;
+                int beta = value + ASPIRATION_WINDOW;
+                
+                value = rootSearch(d, alpha, beta);
+                
+                if (!stopped && (value <= alpha || value >= beta)) {
+                    value = rootSearch(d, -INFINITY, INFINITY);
+                }
+                
+                if (stopped) {
+                    break;
+                }
+                
+                if (id == 0 && bestMove != null) {
+                    timeManager.iterationFinished(BitBoard.square(bestMove));
+                }
+            }
         }
         
-        ArrayList<MoveValue> moveValues = new ArrayList<>();
-        for (Location move : moves) {
-            board.put(move);
-            int value = -quickEvaluate(board);
-            board.undo();
-            moveValues.add(new MoveValue(move, value));
+        // 探索を打ち切るべきか (メインは打ち切りを要求されたか時間の上限を超えたら)
+        // 一度打ち切ると決めたらstoppedを立て，探索の終わりまで打ち切ったままにする
+        private boolean isStopped() {
+            if (!stopped) {
+                stopped = id == 0
+                        ? isCancelled() || timeLimitedFlag && timeManager.isHardLimitReached()
+                        : stop.isCancelled();
+            }
+            return stopped;
         }
-        moveValues.sort((a, b) -> Integer.compare(b.value, a.value));
-        
-        int bestValue = -INFINITY;
-        Location localBestMove = null;
         
-        for (int i = 0; i < moveValues.size(); i++) {
-            if (timeLimitedFlag && getTime() - startTime > TIME_LIMIT * 0.9) {
-                break;
+        // ルートノードでの探索
+        private int rootSearch(int depth, int alpha, int beta) {
+            long legal = board.legalMoves();
+            if (legal == 0) {
+                return 0;
             }
             
-            Location move = moveValues.get(i).location;
-            board.put(move);
-            
-            int value;
-            if (i == 0) {
-                value = -negascout(board, depth - 1, -beta, -alpha);
-            } else {
-                value = -negascout(board, depth - 1, -alpha - 1, -alpha);
-                if (value > alpha && value < beta) {
-                    value = -negascout(board, depth - 1, -beta, -alpha);
+            // 子局面の簡易評価の高い順に挿入ソートする (同じ値なら元の順)
+            int[] squares = moveBuffer[0];
+            int count = 0;
+            for (long m = legal; m != 0; m &= m - 1) {
+                int square = Long.numberOfTrailingZeros(m);
+                board.put(square);
+                int value = -quickEvaluate(board);
+                board.undo();
+                if (id > 0) {
+                    value += random.nextInt(HELPER_ORDER_NOISE);
+                }
+                int j = count++;
+                while (j > 0 && rootScores[j - 1] < value) {
+                    squares[j] = squares[j - 1];
+                    rootScores[j] = rootScores[j - 1];
+                    j--;
                 }
+                squares[j] = square;
+                rootScores[j] = value;
             }
             
-            board.undo();
+            int bestValue = -INFINITY;
+            Location localBestMove = null;
+            int previousBest = bestMove != null ? BitBoard.square(bestMove) : -1;
+            boolean previousSearched = false; // 前の反復の最善手をこの反復で読み終えたか
             
-            if (value > bestValue) {
-                bestValue = value;
-                localBestMove = move;
-                if (value > alpha) {
-                    alpha = value;
+            for (int i = 0; i < count; i++) {
+                if (isStopped()) {
+                    break;
+                }
+                
+                Location move = BitBoard.location(squares[i]);
+                board.put(move);
+                ply++;
+                
+                int value;
+                if (i == 0) {
+                    value = -negascout(depth - 1, -beta, -alpha);
+                } else {
+                    value = -nws(depth - 1, -alpha - 1);
+                    if (value > alpha && value < beta) {
+                        value = -negascout(depth - 1, -beta, -alpha);
+                    }
+                }
+                
+                board.undo();
+                ply--;
+                
+                // 読み終える前に打ち切った手の値は使わない
+                if (stopped) {
+                    break;
+                }
+                if (squares[i] == previousBest) {
+                    previousSearched = true;
+                }
+                
+                if (value > bestValue) {
+                    bestValue = value;
+                    localBestMove = move;
+                    if (value > alpha) {
+                        alpha = value;
+                    }
+                }
+                
+                if (alpha >= beta) {
+                    break;
                 }
             }
             
-            if (alpha >= beta) {
-                break;
+            // 途中で打ち切った反復では，前の最善手と比べられた場合だけ置き換える
+            if (localBestMove != null && (!stopped || bestMove == null || previousSearched)) {
+                bestMove = localBestMove;
             }
+            
+            return bestValue;
         }
         
-        if (localBestMove != null) {
-            bestMove = localBestMove;
-        }
-        
-        return bestValue;
-    }
-    
-    // Negascout
-    private int negascout(Board board, int depth, int alpha, int beta) {
-        nodesSearched++;
-        
-        if (depth <= 0) {
-            return evaluate(board);
-        }
-        
-        if (timeLimitedFlag && nodesSearched % 1024 == 0 && getTime() - startTime > TIME_LIMIT * 0.95) {
-            return evaluate(board);
-        }
-        
-        long hash = computeHash(board);
-        int ttIndex = (int)(hash & TT_MASK);
-        TranspositionEntry entry = transpositionTable[ttIndex];
-        
-        if (entry.hash == hash && entry.depth >= depth) {
-            if (entry.flag == 0) {
-                return entry.value;
-            } else if (entry.flag == 1 && entry.value >= beta) {
-                return entry.value;
-            } else if (entry.flag == 2 && entry.value <= alpha) {
-                return entry.value;
+        // Negascout (PV上の節点だけを扱い，幅1の窓はnwsに任せる)
+        private int negascout(int depth, int alpha, int beta) {
+            if (beta == alpha + 1) {
+                return nws(depth, alpha);
             }
-        }
-        
-        ArrayList<Location> moves = board.enumerateLegalLocations();
-        
-        if (moves.isEmpty()) {
-            board.pass();
-            if (!board.isLegal()) {
+            
+            nodes++;
+            
+            if (depth <= 0) {
+                return evaluate(board);
+            }
+            
+            // 打ち切った後の値は呼び出し側で捨てるので，何を返してもよい
+            if (stopped || nodes % 1024 == 0 && isStopped()) {
+                return 0;
+            }
+            
+            long hash = board.getHash();
+            long ttData = transpositionTable.probe(hash);
+            int ttBestMove = -1;
+            
+            if (ttData != 0) {
+                ttBestMove = TranspositionTable.bestMove(ttData);
+                if (TranspositionTable.depth(ttData) >= depth) {
+                    int ttValue = TranspositionTable.score(ttData);
+                    int flag = TranspositionTable.bound(ttData);
+                    if (flag == TranspositionTable.EXACT) {
+                        return ttValue;
+                    } else if (flag == TranspositionTable.LOWER && ttValue >= beta) {
+                        return ttValue;
+                    } else if (flag == TranspositionTable.UPPER && ttValue <= alpha) {
+                        return ttValue;
+                    }
+                }
+            }
+            
+            int alphaOrig = alpha;
+            
+            long legal = board.legalMoves();
+            
+            if (legal == 0) {
+                board.pass();
+                if (!board.isLegal()) {
+                    board.undo();
+                    return evaluateEnd(board);
+                }
+                ply++;
+                int value = -negascout(depth, -beta, -alpha);
+                ply--;
                 board.undo();
-                return evaluateEnd(board);
+                return value;
             }
-            int value = -negascout(board, depth, -beta, -alpha);
-            board.undo();
-            return value;
+            
+            int[] squares = moveBuffer[ply];
+            int count = ply < MOBILITY_ORDER_PLY
+                    ? ordering.orderByMobility(board.getPlayer(), board.getOpponent(), legal, ttBestMove, squares)
+                    : ordering.order(legal, ttBestMove, ply, board.getCurrentColor(), squares);
+            
+            int bestValue = -INFINITY;
+            int bestSquare = -1;
+            
+            for (int i = 0; i < count; i++) {
+                board.put(squares[i]);
+                ply++;
+            
+                int value;
+                if (i == 0) {
+                    value = -negascout(depth - 1, -beta, -alpha);
+                } else {
+                    value = -nws(depth - 1, -alpha - 1);
+                    if (value > alpha && value < beta) {
+                        value = -negascout(depth - 1, -beta, -alpha);
+                    }
+                }
+            
+                ply--;
+                board.undo();
+                
+                if (stopped) {
+                    return 0;
+                }
+            
+                if (value > bestValue) {
+                    bestValue = value;
+                    bestSquare = squares[i];
+                    if (value > alpha) {
+                        alpha = value;
+                    }
+                }
+            
+                if (alpha >= beta) {
+                    ordering.update(squares[i], ply, board.getCurrentColor(), depth);
+                    break;
+                }
+            }
+            
+            int flag;
+            if (bestValue <= alphaOrig) {
+                flag = TranspositionTable.UPPER;
+            } else if (bestValue >= beta) {
+                flag = TranspositionTable.LOWER;
+            } else {
+                flag = TranspositionTable.EXACT;
+            }
+            transpositionTable.store(hash, bestValue, depth, flag, bestSquare);
+            
+            return bestValue;
         }
         
-        orderMoves(board, moves, entry.bestMove);
-        
-        int bestValue = -INFINITY;
-        int bestMoveIndex = -1;
-        
-        for (int i = 0; i < moves.size(); i++) {
-            board.put(moves.get(i));
+        // Null Window Search: 窓(alpha, alpha + 1)で，値がalphaを超えるかだけを調べる
+        // 再探索も最善手順の管理もせず，置換表には上界か下界だけを書く
+        private int nws(int depth, int alpha) {
+            int beta = alpha + 1;
+            nodes++;
             
-            int value;
-            if (i == 0) {
-                value = -negascout(board, depth - 1, -beta, -alpha);
-            } else {
-                value = -negascout(board, depth - 1, -alpha - 1, -alpha);
-                if (value > alpha && value < beta) {
-                    value = -negascout(board, depth - 1, -beta, -alpha);
+            if (depth <= 0) {
+                return evaluate(board);
+            }
+            
+            // 打ち切った後の値は呼び出し側で捨てるので，何を返してもよい
+            if (stopped || nodes % 1024 == 0 && isStopped()) {
+                return 0;
+            }
+            
+            long hash = board.getHash();
+            long ttData = transpositionTable.probe(hash);
+            int ttBestMove = -1;
+            
+            if (ttData != 0) {
+                ttBestMove = TranspositionTable.bestMove(ttData);
+                if (TranspositionTable.depth(ttData) >= depth) {
+                    int ttValue = TranspositionTable.score(ttData);
+                    int flag = TranspositionTable.bound(ttData);
+                    if (flag != TranspositionTable.UPPER && ttValue >= beta
+                            || flag != TranspositionTable.LOWER && ttValue <= alpha) {
+                        return ttValue;
+                    }
                 }
             }
             
-            board.undo();
+            // 勝ちが確定した値の範囲を調べているときは，
+            // 相手の確定石から終局時の石差の上界を求め，αを超えられなければ打ち切る
+            if (alpha >= WIN_SCORE) {
+                int maxDiff = EndgameSolver.SCORE_MAX
+                        - 2 * Stability.countStableDiscs(board.getOpponent(), board.getPlayer());
+                int upper = maxDiff > 0 ? WIN_SCORE + maxDiff : 0;
+                if (upper <= alpha) {
+                    return upper;
+                }
+            }
             
-            if (value > bestValue) {
-                bestValue = value;
-                bestMoveIndex = i;
-                if (value > alpha) {
-                    alpha = value;
+            // Multi-ProbCut: 浅い探索の値から深い探索の値を予測し，
+            // 窓の外になる見込みが十分高ければ読まずに打ち切る
+            if (mpc != null && !probing && depth >= MpcParameters.MIN_DEPTH
+                    && depth <= MpcParameters.MAX_DEPTH && Math.abs(alpha) < WIN_SCORE) {
+                int discs = board.getCount(0) + board.getCount(1);
+                int shallow = MpcParameters.shallowDepth(depth);
+                int upper = mpc.upperBound(discs, depth, beta);
+                int lower = mpc.lowerBound(discs, depth, alpha);
+                // 静的評価で窓のどちら側に外れそうかを見て，調べる側を1つに絞る
+                int staticValue = evaluate(board);
+                probing = true;
+                boolean high = staticValue >= beta && upper < WIN_SCORE
+                        && nws(shallow, upper - 1) >= upper;
+                boolean low = staticValue <= alpha && lower > -WIN_SCORE
+                        && nws(shallow, lower) <= lower;
+                probing = false;
+                if (stopped) {
+                    return 0;
+                }
+                if (high) {
+                    return beta;
+                }
+                if (low) {
+                    return alpha;
                 }
             }
             
-            if (alpha >= beta) {
-                break;
+            long legal = board.legalMoves();
+            
+            if (legal == 0) {
+                board.pass();
+                if (!board.isLegal()) {
+                    board.undo();
+                    return evaluateEnd(board);
+                }
+                ply++;
+                int value = -nws(depth, -beta);
+                ply--;
+                board.undo();
+                return value;
             }
+            
+            int[] squares = moveBuffer[ply];
+            int count = ordering.order(legal, ttBestMove, ply, board.getCurrentColor(), squares);
+            
+            int bestValue = -INFINITY;
+            int bestSquare = -1;
+            
+            for (int i = 0; i < count; i++) {
+                board.put(squares[i]);
+                ply++;
+                int value = -nws(depth - 1, -beta);
+                ply--;
+                board.undo();
+                
+                if (stopped) {
+                    return 0;
+                }
+            
+                if (value > bestValue) {
+                    bestValue = value;
+                    bestSquare = squares[i];
+                    if (value > alpha) {
+                        ordering.update(squares[i], ply, board.getCurrentColor(), depth);
+                        break;
+                    }
+                }
+            }
+            
+            int flag = bestValue > alpha ? TranspositionTable.LOWER : TranspositionTable.UPPER;
+            transpositionTable.store(hash, bestValue, depth, flag, bestSquare);
+            
+            return bestValue;
         }
-        
-        entry.hash = hash;
-        entry.value = bestValue;
-        entry.depth = depth;
-        if (bestValue <= alpha) {
-            entry.flag = 2;
-        } else if (bestValue >= beta) {
-            entry.flag = 1;
-        } else {
-            entry.flag = 0;
-        }
-        if (bestMoveIndex >= 0) {
-            entry.bestMove = locationToInt(moves.get(bestMoveIndex));
-        }
-        
-        return bestValue;
     }
     
     // 高速評価
-    private int quickEvaluate(Board board) {
+    private int quickEvaluate(BitBoard board) {
         int myColor = board.getCurrentColor();
         int oppColor = Board.flip(myColor);
         
         int corners = countCorners(board, myColor) - countCorners(board, oppColor);
         
-        int myMobility = board.enumerateLegalLocations().size();
-        board.pass();
-        int oppMobility = board.isLegal() ? board.enumerateLegalLocations().size() : 0;
-        board.undo();
+        int myMobility = board.mobility(myColor);
+        int oppMobility = board.mobility(oppColor);
         
         return corners * 500 + (myMobility - oppMobility) * 30;
     }
     
     // 詳細評価関数
-    private int evaluate(Board board) {
+    // 辺・隅・X打ち・C打ちはパターンの表引きに含まれる
+    // どちらの評価でも，勝敗が確定した値(絶対値がWIN_SCORE以上)と混ざらないように抑える
+    // (探索は絶対値がWIN_SCORE以上の値を勝敗の証明として扱う)
+    int evaluate(PatternBitBoard board) {
+        if (trainedPatterns) {
+            return clampHeuristic(patternEvaluator.evaluate(board));
+        }
+        
         int phase = (board.getCount(0) + board.getCount(1)) / 2;
         if (phase >= N_PHASES) phase = N_PHASES - 1;
         
         int myColor = board.getCurrentColor();
         int oppColor = Board.flip(myColor);
         
-        int score = 0;
-        
-        score += evaluatePatterns(board, myColor, phase);
-        
-        int myCorners = countCorners(board, myColor);
-        int oppCorners = countCorners(board, oppColor);
-        score += (myCorners - oppCorners) * CORNER_WEIGHT;
+        int score = patternEvaluator.evaluate(board);
         
-        int myX = countXSquares(board, myColor);
-        int oppX = countXSquares(board, oppColor);
-        score += (myX - oppX) * X_SQUARE_PENALTY;
-        
-        int myC = countCSquares(board, myColor);
-        int oppC = countCSquares(board, oppColor);
-        score += (myC - oppC) * C_SQUARE_PENALTY;
-        
-        int myMobility = board.enumerateLegalLocations().size();
-        board.pass();
-        int oppMobility = board.isLegal() ? board.enumerateLegalLocations().size() : 0;
-        board.undo();
+        int myMobility = board.mobility(myColor);
+        int oppMobility = board.mobility(oppColor);
         
         int mobilityWeight = phase < 10 ? MOBILITY_WEIGHT_EARLY :
                              phase < 20 ? MOBILITY_WEIGHT_MID : MOBILITY_WEIGHT_LATE;
@@ -366,90 +797,31 @@ public class Egaroucid extends AI {
             score += (empty % 2 == 0 ? PARITY_WEIGHT : -PARITY_WEIGHT);
         }
         
-        return score;
+        return clampHeuristic(score);
     }
     
-    // パターン評価
-    private int evaluatePatterns(Board board, int myColor, int phase) {
-        int score = 0;
-        
-        score += evaluateEdge(board, myColor, 0, 0, 1, 0, phase);
-        score += evaluateEdge(board, myColor, 0, 7, 1, 0, phase);
-        score += evaluateEdge(board, myColor, 0, 0, 0, 1, phase);
-        score += evaluateEdge(board, myColor, 7, 0, 0, 1, phase);
-        
-        return score;
-    }
-    
-    // エッジパターン評価
-    private int evaluateEdge(Board board, int myColor, int x, int y, int dx, int dy, int phase) {
-        int pattern = 0;
-        int base = 1;
-        
-        for (int i = 0; i < 8; i++) {
-            int cx = x + dx * i;
-            int cy = y + dy * i;
-            int cell = board.get(cx, cy);
-            
-            int value = cell == -1 ? 2 : (cell == myColor ? 0 : 1);
-            pattern += value * base;
-            base *= 3;
-        }
-        
-        return edgeTable[phase][pattern];
+    // 評価関数の値を勝敗が確定した値より内側(±(WIN_SCORE - 1))に収める
+    private static int clampHeuristic(int score) {
+        return Math.max(-WIN_SCORE + 1, Math.min(WIN_SCORE - 1, score));
     }
     
     // 終局評価
-    private int evaluateEnd(Board board) {
+    private int evaluateEnd(BitBoard board) {
         int myCount = board.getCount(board.getCurrentColor());
         int oppCount = board.getCount(Board.flip(board.getCurrentColor()));
         int diff = myCount - oppCount;
         
         if (diff > 0) {
-            return 10000 + diff;
+            return WIN_SCORE + diff;
         } else if (diff < 0) {
-            return -10000 + diff;
+            return -WIN_SCORE + diff;
         } else {
             return 0;
         }
     }
     
-    // 手の並び替え
-    private void orderMoves(Board board, ArrayList<Location> moves, int ttBestMove) {
-        ArrayList<MoveValue> moveValues = new ArrayList<>();
-        
-        for (Location move : moves) {
-            int value = 0;
-            
-            if (ttBestMove >= 0 && locationToInt(move) == ttBestMove) {
-                value = 1000000;
-            } else {
-                if (isCorner(move)) {
-                    value += 10000;
-                }
-                
-                if (isXSquare(move) && !isCornerOccupied(board, move)) {
-                    value -= 5000;
-                }
-                
-                board.put(move);
-                value -= quickEvaluate(board);
-                board.undo();
-            }
-            
-            moveValues.add(new MoveValue(move, value));
-        }
-        
-        moveValues.sort((a, b) -> Integer.compare(b.value, a.value));
-        
-        moves.clear();
-        for (MoveValue mv : moveValues) {
-            moves.add(mv.location);
-        }
-    }
-    
     // コーナーカウント
-    private int countCorners(Board board, int c) {
+    private int countCorners(BitBoard board, int c) {
         int count = 0;
         if (board.get(0, 0) == c) count++;
         if (board.get(7, 0) == c) count++;
@@ -458,135 +830,14 @@ public class Egaroucid extends AI {
         return count;
     }
     
-    // X-squareカウント
-    private int countXSquares(Board board, int c) {
-        int count = 0;
-        if (board.get(0, 0) == -1 && board.get(1, 1) == c) count++;
-        if (board.get(7, 0) == -1 && board.get(6, 1) == c) count++;
-        if (board.get(0, 7) == -1 && board.get(1, 6) == c) count++;
-        if (board.get(7, 7) == -1 && board.get(6, 6) == c) count++;
-        return count;
+    // 確定石カウント (辺は表引き，内側は確定石からの伝播で求める)
+    private int countStability(BitBoard board, int c) {
+        long mine = c == board.getCurrentColor() ? board.getPlayer() : board.getOpponent();
+        long theirs = c == board.getCurrentColor() ? board.getOpponent() : board.getPlayer();
+        return Stability.countStableDiscs(mine, theirs);
     }
     
-    // C-squareカウント
-    private int countCSquares(Board board, int c) {
-        int count = 0;
-        if (board.get(0, 0) == -1) {
-            if (board.get(0, 1) == c) count++;
-            if (board.get(1, 0) == c) count++;
-        }
-        if (board.get(7, 0) == -1) {
-            if (board.get(7, 1) == c) count++;
-            if (board.get(6, 0) == c) count++;
-        }
-        if (board.get(0, 7) == -1) {
-            if (board.get(0, 6) == c) count++;
-            if (board.get(1, 7) == c) count++;
-        }
-        if (board.get(7, 7) == -1) {
-            if (board.get(7, 6) == c) count++;
-            if (board.get(6, 7) == c) count++;
-        }
-        return count;
-    }
-    
-    // 安定石カウント
-    private int countStability(Board board, int c) {
-        int stability = 0;
-        boolean[][] stable = new boolean[8][8];
-        
-        if (board.get(0, 0) == c) {
-            markStableFromCorner(board, stable, 0, 0, c);
-        }
-        if (board.get(7, 0) == c) {
-            markStableFromCorner(board, stable, 7, 0, c);
-        }
-        if (board.get(0, 7) == c) {
-            markStableFromCorner(board, stable, 0, 7, c);
-        }
-        if (board.get(7, 7) == c) {
-            markStableFromCorner(board, stable, 7, 7, c);
-        }
-        
-        for (int y = 0; y < 8; y++) {
-            for (int x = 0; x < 8; x++) {
-                if (stable[x][y]) stability++;
-            }
-        }
-        
-        return stability;
-    }
-    
-    // コーナーからの安定石マーキング
-    private void markStableFromCorner(Board board, boolean[][] stable, int cx, int cy, int c) {
-        int dx = cx == 0 ? 1 : -1;
-        int dy = cy == 0 ? 1 : -1;
-        
-        for (int y = cy; y >= 0 && y < 8; y += dy) {
-            for (int x = cx; x >= 0 && x < 8; x += dx) {
-                if (board.get(x, y) == c && !stable[x][y]) {
-                    if ((x == cx || y == cy || Math.abs(x-cx) == Math.abs(y-cy)) &&
-                        isConnectedToCorner(board, stable, x, y, cx, cy, c)) {
-                        stable[x][y] = true;
-                    }
-                }
-            }
-        }
-    }
-    
-    // コーナーへの連結確認
-    private boolean isConnectedToCorner(Board board, boolean[][] stable, int x, int y, int cx, int cy, int c) {
-        if (x == cx && y == cy) return true;
-        
-        int dx = Integer.compare(x, cx);
-        int dy = Integer.compare(y, cy);
-        
-        for (int i = 1; i < 8; i++) {
-            int nx = cx + dx * i;
-            int ny = cy + dy * i;
-            
-            if (nx == x && ny == y) return true;
-            if (nx < 0 || nx >= 8 || ny < 0 || ny >= 8) return false;
-            if (board.get(nx, ny) != c) return false;
-        }
-        
-        return false;
-    }
-    
-    private boolean isCorner(Location loc) {
-        return (loc.x() == 0 || loc.x() == 7) && (loc.y() == 0 || loc.y() == 7);
-    }
-    
-    private boolean isXSquare(Location loc) {
-        return (loc.x() == 1 || loc.x() == 6) && (loc.y() == 1 || loc.y() == 6);
-    }
-    
-    private boolean isCornerOccupied(Board board, Location xSquare) {
-        int cx = xSquare.x() == 1 ? 0 : 7;
-        int cy = xSquare.y() == 1 ? 0 : 7;
-        return board.get(cx, cy) != -1;
-    }
-    
-    private long computeHash(Board board) {
-        long hash = 0;
-        long multiplier = 1;
-        
-        for (int y = 0; y < 8; y++) {
-            for (int x = 0; x < 8; x++) {
-                int cell = board.get(x, y);
-                hash += (cell + 1) * multiplier;
-                multiplier *= 3;
-            }
-        }
-        
-        return hash;
-    }
-    
-    private int locationToInt(Location loc) {
-        return loc.y() * 8 + loc.x();
-    }
-    
-    private Location selectBestMove(Board board) {
+    private Location selectBestMove(BitBoard board) {
         ArrayList<Location> moves = board.enumerateLegalLocations();
         if (moves.isEmpty()) {
             return null;
@@ -608,15 +859,4 @@ public class Egaroucid extends AI {
         
         return best;
     }
-    
-    // ヘルパークラス
-    private static class MoveValue {
-        Location location;
-        int value;
-        
-        MoveValue(Location location, int value) {
-            this.location = location;
-            this.value = value;
-        }
-    }
 }
@@ -0,0 +1,490 @@
+package j2.review02;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * EndgameSolver - 終盤の完全読みを行うソルバー
+ *
+ * 評価関数を使わず，終局まで読み切って最終石差(空きマスは勝った側に加える)を返す．
+ * 盤面は手番側・相手側のlong 2つのまま扱い，BitBoardやLocationは生成しない．
+ *
+ * - 空きマスが多いうちは相手の着手可能数が少なくなる手から読む (速さ優先)
+ * - 空きマスが少なくなったら空きマスが奇数個ある象限の手から読む (偶数理論)
+ * - 残り4マス以下は空きマスを引数で受け取る専用の関数で読み，合法手生成を省く
+ * - 空きマスが多い局面は置換表に結果を残して合流した局面を読み直さない
+ * - 相手の確定石から求めた石差の上界がα以下なら，その局面は読まずに打ち切る
+ *
+ * solveWinLossDraw()は石差を求めず，0のまわりの窓(-1, 1)で勝敗だけを読む．
+ * 内部の探索はほぼすべて(-1, 0)か(0, 1)の幅0の窓になるので完全読みより速く，
+ * 完全読みが間に合わない空きマス数でも勝ちを証明できることがある．
+ *
+ * BooleanSupplierで打ち切り条件を与えると一定ノードごとに確認し，
+ * 満たされたら探索を中断する．中断したかどうかはisAborted()で分かる．
+ */
+public class EndgameSolver {
+
+    public static final int SCORE_MAX = 64; // 最終石差の最大値
+
+    // 勝敗読みの結果
+    public static final int WIN = 1;
+    public static final int DRAW = 0;
+    public static final int LOSS = -1;
+
+    private static final int DEFAULT_TT_SIZE_MB = 16;
+    private static final int TT_MIN_EMPTIES = 10;        // 置換表を使う最小の空きマス数
+    private static final int FASTEST_FIRST_EMPTIES = 7;  // 速さ優先で並べる最小の空きマス数
+    private static final int CHECK_MASK = 4096 - 1;      // 打ち切り条件を確認する間隔(ノード数)
+
+    // 空きマス数ごとに，確定石による打ち切りを試すαの下限
+    // 空きマスが多いと確定石が少なく，αが大きいときしか打ち切れないので計算を省く
+    private static final int[] STABILITY_THRESHOLD = new int[61];
+    static {
+        for (int empties = 0; empties <= 60; empties++) {
+            STABILITY_THRESHOLD[empties] = 2 * empties - 20;
+        }
+    }
+
+    // 象限ごとのマス (左上，右上，左下，右下)
+    private static final long[] QUADRANT_MASK = {
+        0x000000000f0f0f0fL, 0x00000000f0f0f0f0L,
+        0x0f0f0f0f00000000L, 0xf0f0f0f000000000L
+    };
+    private static final int[] QUADRANT = new int[64];
+    static {
+        for (int square = 0; square < 64; square++) {
+            QUADRANT[square] = ((square >>> 5) << 1) | ((square >>> 2) & 1);
+        }
+    }
+
+    private static final long CORNERS = 0x8100000000000081L;
+
+    private final TranspositionTable table;
+    private final BooleanSupplier stop;
+
+    // 空きマス数ごとの着手バッファ (パスしても空きマス数は同じだが，そのとき親は手を持たない)
+    private final int[][] moveBuffer = new int[61][64];
+    private final int[][] keyBuffer = new int[61][64];
+    private final long[][] flipBuffer = new long[61][64];
+    private final int[] lastSquares = new int[4];
+
+    private long nodes;
+    private boolean aborted;
+    private int bestSquare;
+    private long elapsedNanos;
+    private String lastReport; // nullのときは窓付きの探索
+    private int lastAlpha;
+    private int lastBeta;
+
+    // 打ち切り条件なしで生成する．
+    public EndgameSolver() {
+        this(DEFAULT_TT_SIZE_MB, null);
+    }
+
+    // 置換表の大きさ(MB)と打ち切り条件(nullなら打ち切らない)を指定して生成する．
+    public EndgameSolver(int ttSizeMB, BooleanSupplier stop) {
+        this.table = new TranspositionTable(ttSizeMB);
+        this.stop = stop;
+    }
+
+    // 局面boardを完全に読み，手番側から見た最終石差を返す．
+    public int solve(BitBoard board) {
+        int score = solve(board, -SCORE_MAX, SCORE_MAX);
+        lastReport = String.format("exact %+d", score);
+        return score;
+    }
+
+    // 局面boardの勝敗だけを読み，手番側から見てWIN，DRAW，LOSSのいずれかを返す．
+    // 勝ちの場合，getBestMove()は勝ちを証明した手を返す．
+    public int solveWinLossDraw(BitBoard board) {
+        int result = Integer.signum(solve(board, -1, 1));
+        lastReport = result == WIN ? "WLD win" : result == DRAW ? "WLD draw" : "WLD loss";
+        return result;
+    }
+
+    // 窓(alpha, beta)で局面boardを読む．結果が窓の外なら窓の外の値(上界・下界)を返す．
+    // 最善手はgetBestMove()で取り出せる．
+    public int solve(BitBoard board, int alpha, int beta) {
+        nodes = 0;
+        aborted = false;
+        bestSquare = -1;
+        table.newSearch();
+        lastReport = null;
+        lastAlpha = alpha;
+        lastBeta = beta;
+
+        long start = System.nanoTime();
+        int score = solveRoot(board.getPlayer(), board.getOpponent(), alpha, beta);
+        elapsedNanos = System.nanoTime() - start;
+        return score;
+    }
+
+    // ルート局面を読む．ルートでは最善手を記録する．
+    private int solveRoot(long p, long o, int alpha, int beta) {
+        int empties = Long.bitCount(~(p | o));
+        long moves = BitBoard.legalMoves(p, o);
+        if (moves == 0) {
+            return -search(o, p, -beta, -alpha, empties, true);
+        }
+
+        int n = orderMoves(p, o, moves, empties, -1);
+        int[] squares = moveBuffer[empties];
+        long[] flips = flipBuffer[empties];
+        int best = -SCORE_MAX - 1;
+        for (int i = 0; i < n; i++) {
+            int square = squares[i];
+            long np = o & ~flips[i];
+            long no = p | flips[i] | (1L << square);
+            int value;
+            if (i == 0) {
+                value = -search(np, no, -beta, -alpha, empties - 1, false);
+            } else {
+                value = -search(np, no, -alpha - 1, -alpha, empties - 1, false);
+                if (value > alpha && value < beta) {
+                    value = -search(np, no, -beta, -alpha, empties - 1, false);
+                }
+            }
+            if (aborted) {
+                break;
+            }
+            if (value > best) {
+                best = value;
+                bestSquare = square;
+                if (value > alpha) {
+                    alpha = value;
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    // 直前のsolveで見つけた最善手を返す．パスの局面や，1手も読み切る前に中断した場合はnull．
+    public Location getBestMove() {
+        return bestSquare >= 0 ? BitBoard.location(bestSquare) : null;
+    }
+
+    // 直前のsolveが打ち切り条件で中断されたか．
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    // 直前のsolveで訪れたノード数を返す．
+    public long getNodes() {
+        return nodes;
+    }
+
+    // 直前のsolveにかかった実時間(ナノ秒)を返す．
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    // 直前のsolveの結果，ノード数，時間をまとめた文字列を返す．
+    public String getReport() {
+        String mode = lastReport != null ? lastReport : String.format("window (%d, %d)", lastAlpha, lastBeta);
+        return String.format("%s%s, %d nodes, %.2fs", mode, aborted ? " (aborted)" : "",
+                nodes, elapsedNanos / 1.0e9);
+    }
+
+    // 置換表を消去する．
+    public void clear() {
+        table.clear();
+    }
+
+    // 空きマスが5個以上の局面を読む．
+    private int search(long p, long o, int alpha, int beta, int empties, boolean passed) {
+        if (empties <= 4) {
+            return searchLast(p, o, alpha, beta, empties);
+        }
+        if ((++nodes & CHECK_MASK) == 0 && stop != null && stop.getAsBoolean()) {
+            aborted = true;
+        }
+        if (aborted) {
+            return alpha;
+        }
+
+        // 相手の確定石から石差の上界を求め，αを超えられなければ打ち切る
+        if (alpha >= STABILITY_THRESHOLD[empties]) {
+            int upper = SCORE_MAX - 2 * Stability.countStableDiscs(o, p);
+            if (upper <= alpha) {
+                return upper;
+            }
+        }
+
+        long moves = BitBoard.legalMoves(p, o);
+        if (moves == 0) {
+            if (passed) {
+                return finalScore(p, o);
+            }
+            return -search(o, p, -beta, -alpha, empties, true);
+        }
+
+        long hash = 0;
+        int ttMove = -1;
+        if (empties >= TT_MIN_EMPTIES) {
+            hash = hash(p, o);
+            long data = table.probe(hash);
+            if (data != 0) {
+                ttMove = TranspositionTable.bestMove(data);
+                int score = TranspositionTable.score(data);
+                int bound = TranspositionTable.bound(data);
+                if (bound == TranspositionTable.EXACT
+                        || bound == TranspositionTable.LOWER && score >= beta
+                        || bound == TranspositionTable.UPPER && score <= alpha) {
+                    return score;
+                }
+            }
+        }
+
+        int alphaOrig = alpha;
+        int n = orderMoves(p, o, moves, empties, ttMove);
+        int[] squares = moveBuffer[empties];
+        long[] flips = flipBuffer[empties];
+        int best = -SCORE_MAX - 1;
+        int bestMove = -1;
+        for (int i = 0; i < n; i++) {
+            int square = squares[i];
+            long np = o & ~flips[i];
+            long no = p | flips[i] | (1L << square);
+            int value;
+            if (i == 0) {
+                value = -search(np, no, -beta, -alpha, empties - 1, false);
+            } else {
+                value = -search(np, no, -alpha - 1, -alpha, empties - 1, false);
+                if (value > alpha && value < beta) {
+                    value = -search(np, no, -beta, -alpha, empties - 1, false);
+                }
+            }
+            if (aborted) {
+                return alpha;
+            }
+            if (value > best) {
+                best = value;
+                bestMove = square;
+                if (value > alpha) {
+                    alpha = value;
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (empties >= TT_MIN_EMPTIES) {
+            int bound = best <= alphaOrig ? TranspositionTable.UPPER
+                      : best >= beta ? TranspositionTable.LOWER
+                      : TranspositionTable.EXACT;
+            table.store(hash, best, empties, bound, bestMove);
+        }
+        return best;
+    }
+
+    // 合法手movesを読む順に並べてmoveBuffer[empties]に入れ，手の数を返す．
+    // 反転する石はflipBuffer[empties]に入れる．
+    private int orderMoves(long p, long o, long moves, int empties, int ttMove) {
+        int[] squares = moveBuffer[empties];
+        int[] keys = keyBuffer[empties];
+        long[] flips = flipBuffer[empties];
+        int parity = parity(~(p | o));
+        int n = 0;
+        for (long m = moves; m != 0; m &= m - 1) {
+            int square = Long.numberOfTrailingZeros(m);
+            long flipped = BitBoard.computeFlips(p, o, square);
+            int key;
+            if (square == ttMove) {
+                key = Integer.MIN_VALUE;
+            } else if (empties >= FASTEST_FIRST_EMPTIES) {
+                // 相手の着手可能数(角は2倍に数える)が少ない手ほど先に読む
+                long np = o & ~flipped;
+                long no = p | flipped | (1L << square);
+                long oppMoves = BitBoard.legalMoves(np, no);
+                key = (Long.bitCount(oppMoves) + Long.bitCount(oppMoves & CORNERS)) * 2;
+                if ((parity & (1 << QUADRANT[square])) == 0) {
+                    key++;
+                }
+            } else {
+                key = (parity & (1 << QUADRANT[square])) != 0 ? 0 : 1;
+            }
+
+            // 挿入ソート (手の数は高々30程度)
+            int j = n;
+            while (j > 0 && keys[j - 1] > key) {
+                squares[j] = squares[j - 1];
+                keys[j] = keys[j - 1];
+                flips[j] = flips[j - 1];
+                j--;
+            }
+            squares[j] = square;
+            keys[j] = key;
+            flips[j] = flipped;
+            n++;
+        }
+        return n;
+    }
+
+    // 空きマスが4個以下の局面を読む．空きマスを取り出して専用の関数へ渡す．
+    private int searchLast(long p, long o, int alpha, int beta, int empties) {
+        long empty = ~(p | o);
+        switch (empties) {
+            case 0:
+                nodes++;
+                return finalScore(p, o);
+            case 1:
+                return last1(p, o, Long.numberOfTrailingZeros(empty));
+            case 2: {
+                int x1 = Long.numberOfTrailingZeros(empty);
+                int x2 = Long.numberOfTrailingZeros(empty & (empty - 1));
+                return last2(p, o, alpha, beta, x1, x2, false);
+            }
+            case 3: {
+                int x1 = Long.numberOfTrailingZeros(empty);
+                empty &= empty - 1;
+                int x2 = Long.numberOfTrailingZeros(empty);
+                empty &= empty - 1;
+                int x3 = Long.numberOfTrailingZeros(empty);
+                return last3(p, o, alpha, beta, x1, x2, x3, false);
+            }
+            default: {
+                // 奇数個の空きマスがある象限のマスを前に寄せる
+                int parity = parity(empty);
+                int[] squares = lastSquares;
+                int n = 0;
+                for (long e = empty; e != 0; e &= e - 1) {
+                    int square = Long.numberOfTrailingZeros(e);
+                    if ((parity & (1 << QUADRANT[square])) != 0) {
+                        squares[n++] = square;
+                    }
+                }
+                for (long e = empty; e != 0; e &= e - 1) {
+                    int square = Long.numberOfTrailingZeros(e);
+                    if ((parity & (1 << QUADRANT[square])) == 0) {
+                        squares[n++] = square;
+                    }
+                }
+                return last4(p, o, alpha, beta, squares[0], squares[1], squares[2], squares[3], false);
+            }
+        }
+    }
+
+    // 残り4マス
+    private int last4(long p, long o, int alpha, int beta, int x1, int x2, int x3, int x4, boolean passed) {
+        nodes++;
+        int best = -SCORE_MAX - 1;
+        long flipped;
+        if ((flipped = BitBoard.computeFlips(p, o, x1)) != 0) {
+            best = -last3(o & ~flipped, p | flipped | (1L << x1), -beta, -alpha, x2, x3, x4, false);
+            if (best >= beta) return best;
+            if (best > alpha) alpha = best;
+        }
+        if ((flipped = BitBoard.computeFlips(p, o, x2)) != 0) {
+            int value = -last3(o & ~flipped, p | flipped | (1L << x2), -beta, -alpha, x1, x3, x4, false);
+            if (value >= beta) return value;
+            if (value > best) { best = value; if (value > alpha) alpha = value; }
+        }
+        if ((flipped = BitBoard.computeFlips(p, o, x3)) != 0) {
+            int value = -last3(o & ~flipped, p | flipped | (1L << x3), -beta, -alpha, x1, x2, x4, false);
+            if (value >= beta) return value;
+            if (value > best) { best = value; if (value > alpha) alpha = value; }
+        }
+        if ((flipped = BitBoard.computeFlips(p, o, x4)) != 0) {
+            int value = -last3(o & ~flipped, p | flipped | (1L << x4), -beta, -alpha, x1, x2, x3, false);
+            if (value > best) best = value;
+        }
+        if (best == -SCORE_MAX - 1) {
+            return passed ? finalScore(p, o) : -last4(o, p, -beta, -alpha, x1, x2, x3, x4, true);
+        }
+        return best;
+    }
+
+    // 残り3マス
+    private int last3(long p, long o, int alpha, int beta, int x1, int x2, int x3, boolean passed) {
+        nodes++;
+        int best = -SCORE_MAX - 1;
+        long flipped;
+        if ((flipped = BitBoard.computeFlips(p, o, x1)) != 0) {
+            best = -last2(o & ~flipped, p | flipped | (1L << x1), -beta, -alpha, x2, x3, false);
+            if (best >= beta) return best;
+            if (best > alpha) alpha = best;
+        }
+        if ((flipped = BitBoard.computeFlips(p, o, x2)) != 0) {
+            int value = -last2(o & ~flipped, p | flipped | (1L << x2), -beta, -alpha, x1, x3, false);
+            if (value >= beta) return value;
+            if (value > best) { best = value; if (value > alpha) alpha = value; }
+        }
+        if ((flipped = BitBoard.computeFlips(p, o, x3)) != 0) {
+            int value = -last2(o & ~flipped, p | flipped | (1L << x3), -beta, -alpha, x1, x2, false);
+            if (value > best) best = value;
+        }
+        if (best == -SCORE_MAX - 1) {
+            return passed ? finalScore(p, o) : -last3(o, p, -beta, -alpha, x1, x2, x3, true);
+        }
+        return best;
+    }
+
+    // 残り2マス
+    private int last2(long p, long o, int alpha, int beta, int x1, int x2, boolean passed) {
+        nodes++;
+        int best = -SCORE_MAX - 1;
+        long flipped;
+        if ((flipped = BitBoard.computeFlips(p, o, x1)) != 0) {
+            best = -last1(o & ~flipped, p | flipped | (1L << x1), x2);
+            if (best >= beta) return best;
+        }
+        if ((flipped = BitBoard.computeFlips(p, o, x2)) != 0) {
+            int value = -last1(o & ~flipped, p | flipped | (1L << x2), x1);
+            if (value > best) best = value;
+        }
+        if (best == -SCORE_MAX - 1) {
+            return passed ? finalScore(p, o) : -last2(o, p, -beta, -alpha, x1, x2, true);
+        }
+        return best;
+    }
+
+    // 残り1マス．石の数は p + o = 63 なので反転数だけで石差が決まる．
+    private int last1(long p, long o, int x) {
+        nodes++;
+        int score = 2 * Long.bitCount(p) - 63;
+        long flipped = BitBoard.computeFlips(p, o, x);
+        if (flipped != 0) {
+            return score + 1 + 2 * Long.bitCount(flipped);
+        }
+        flipped = BitBoard.computeFlips(o, p, x);
+        if (flipped != 0) {
+            return score - 1 - 2 * Long.bitCount(flipped);
+        }
+        // 両者とも打てない: 空きマスは勝った側のもの (石の総数が奇数なので引き分けはない)
+        return score > 0 ? score + 1 : score - 1;
+    }
+
+    // 終局した局面の手番側から見た石差 (空きマスは勝った側に加える)
+    private static int finalScore(long p, long o) {
+        int pc = Long.bitCount(p);
+        int oc = Long.bitCount(o);
+        int diff = pc - oc;
+        int empties = 64 - pc - oc;
+        if (diff > 0) {
+            return diff + empties;
+        } else if (diff < 0) {
+            return diff - empties;
+        }
+        return 0;
+    }
+
+    // 空きマスが奇数個ある象限のビット集合を返す．
+    private static int parity(long empty) {
+        int parity = 0;
+        for (int q = 0; q < 4; q++) {
+            parity |= (Long.bitCount(empty & QUADRANT_MASK[q]) & 1) << q;
+        }
+        return parity;
+    }
+
+    // 手番側・相手側の石からハッシュを計算する．
+    private static long hash(long p, long o) {
+        long h = p * 0x9e3779b97f4a7c15L ^ Long.rotateLeft(o * 0xc2b2ae3d27d4eb4fL, 31);
+        h ^= h >>> 29;
+        h *= 0xbf58476d1ce4e5b9L;
+        return h ^ (h >>> 32);
+    }
+}
@@ -0,0 +1,36 @@
+package j2.review02;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * MoveClock - 1手分の計算時間を測る時計
+ *
+ * start()を呼んだ時点からの，呼び出したスレッドのCPU時間(ユーザー時間)と
+ * 実時間を返す．start()を呼ばない場合，CPU時間はスレッドの開始から測られる．
+ */
+public class MoveClock {
+
+    private long cpuStart;  // start()時点のスレッドCPU時間
+    private long wallStart; // start()時点の実時間
+
+    // 計測を開始する．
+    public void start() {
+        cpuStart = cpuTime();
+        wallStart = System.nanoTime();
+    }
+
+    // start()以降に呼び出しスレッドが使ったCPU時間(ナノ秒)を返す．
+    public long elapsed() {
+        return cpuTime() - cpuStart;
+    }
+
+    // start()以降の経過実時間(ナノ秒)を返す．
+    // 複数のスレッドで探索するAIはCPU時間ではなくこちらで時間を管理する．
+    public long wallElapsed() {
+        return System.nanoTime() - wallStart;
+    }
+
+    private static long cpuTime() {
+        return ManagementFactory.getThreadMXBean().getCurrentThreadUserTime();
+    }
+}
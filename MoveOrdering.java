@@ -0,0 +1,155 @@
+package j2.review02;
+
+import java.util.Arrays;
+
+/**
+ * MoveOrdering - 探索中の手の並べ替え
+ *
+ * 子局面を打って評価することはせず，次の順に並べる．
+ *   1. 置換表の最善手
+ *   2. キラー手 (同じ深さ(ply)で直前にβカットを起こした2手)
+ *   3. ヒストリー (色・マスごとの，βカットを起こした回数を深さの2乗で重み付けした値)
+ *      が大きい順，同じならマスの静的な優先度 (隅が先，X打ちが後) の順
+ * ルートの近くだけは，打った後の相手の着手可能数が少ない順に並べるorderByMobilityも使える．
+ *
+ * 1つの探索スレッドに1つのインスタンスを持たせる (スレッド間で共有しない)．
+ * 並べ替えは挿入ソートで行い，探索中に配列の確保はしない．
+ */
+public class MoveOrdering {
+
+    public static final int MAX_PLY = 64; // キラー手を覚える深さ(ルートからの手数)の上限
+
+    private static final int TT_MOVE_SCORE = 1 << 30;
+    private static final int KILLER_SCORE = 1 << 29; // 2番目のキラー手はこの半分
+    private static final int HISTORY_LIMIT = 1 << 20; // これを超えたら全体を半分にする
+
+    // マスの静的な優先度 (0〜15，隅が15でX打ちが0)
+    private static final int[] SQUARE_PRIORITY = {
+        15,  2, 10,  8,  8, 10,  2, 15,
+         2,  0,  5,  5,  5,  5,  0,  2,
+        10,  5,  9,  7,  7,  9,  5, 10,
+         8,  5,  7,  6,  6,  7,  5,  8,
+         8,  5,  7,  6,  6,  7,  5,  8,
+        10,  5,  9,  7,  7,  9,  5, 10,
+         2,  0,  5,  5,  5,  5,  0,  2,
+        15,  2, 10,  8,  8, 10,  2, 15,
+    };
+    private static final long X_SQUARES = 0x4200000000004200L;
+    private static final long CORNERS = 0x8100000000000081L;
+
+    private final int[][] history = new int[2][64];
+    private final int[][] killers = new int[MAX_PLY][2];
+    private final int[] scores = new int[64];
+
+    public MoveOrdering() {
+        clear();
+    }
+
+    // ヒストリーとキラー手をすべて消す．
+    public void clear() {
+        Arrays.fill(history[0], 0);
+        Arrays.fill(history[1], 0);
+        for (int[] killer : killers) {
+            killer[0] = -1;
+            killer[1] = -1;
+        }
+    }
+
+    // 新しい探索を始める．ヒストリーは半分にして残し，キラー手は消す．
+    public void newSearch() {
+        for (int color = 0; color < 2; color++) {
+            for (int square = 0; square < 64; square++) {
+                history[color][square] >>= 1;
+            }
+        }
+        for (int[] killer : killers) {
+            killer[0] = -1;
+            killer[1] = -1;
+        }
+    }
+
+    // 合法手movesを良さそうな順にsquaresへ書き，手の数を返す．
+    // ttMoveは置換表の最善手(なければ-1)，plyはルートからの手数，colorは手番の色．
+    public int order(long moves, int ttMove, int ply, int color, int[] squares) {
+        int killer1 = ply < MAX_PLY ? killers[ply][0] : -1;
+        int killer2 = ply < MAX_PLY ? killers[ply][1] : -1;
+        int[] colorHistory = history[color];
+        int n = 0;
+        for (long m = moves; m != 0; m &= m - 1) {
+            int square = Long.numberOfTrailingZeros(m);
+            int score;
+            if (square == ttMove) {
+                score = TT_MOVE_SCORE;
+            } else if (square == killer1) {
+                score = KILLER_SCORE;
+            } else if (square == killer2) {
+                score = KILLER_SCORE >> 1;
+            } else {
+                score = (colorHistory[square] << 4) | SQUARE_PRIORITY[square];
+            }
+            insert(squares, n++, square, score);
+        }
+        return n;
+    }
+
+    // 合法手movesを，打った後の相手の着手可能数が少ない順にsquaresへ書き，手の数を返す．
+    // 子局面ごとに合法手を数えるのでorder()より重く，ルートの近くでだけ使う．
+    public int orderByMobility(long player, long opponent, long moves, int ttMove, int[] squares) {
+        long emptyCorners = CORNERS & ~(player | opponent);
+        int n = 0;
+        for (long m = moves; m != 0; m &= m - 1) {
+            int square = Long.numberOfTrailingZeros(m);
+            int score;
+            if (square == ttMove) {
+                score = TT_MOVE_SCORE;
+            } else {
+                long flipped = BitBoard.computeFlips(player, opponent, square);
+                long p = player | flipped | (1L << square);
+                long o = opponent & ~flipped;
+                long opponentMoves = BitBoard.legalMoves(o, p);
+                // 相手の手は隅を3手分に数える
+                score = -(Long.bitCount(opponentMoves) + 2 * Long.bitCount(opponentMoves & CORNERS)) * 16
+                        + SQUARE_PRIORITY[square];
+                if ((1L << square & X_SQUARES) != 0 && (adjacentCorner(square) & emptyCorners) != 0) {
+                    score -= 64;
+                }
+            }
+            insert(squares, n++, square, score);
+        }
+        return n;
+    }
+
+    // 深さdepthの局面で手squareがβカットを起こしたことを記録する．
+    public void update(int square, int ply, int color, int depth) {
+        if (ply < MAX_PLY && killers[ply][0] != square) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = square;
+        }
+        int[] colorHistory = history[color];
+        colorHistory[square] += depth * depth;
+        if (colorHistory[square] > HISTORY_LIMIT) {
+            for (int i = 0; i < 64; i++) {
+                colorHistory[i] >>= 1;
+            }
+        }
+    }
+
+    // squares[0..n)にscoreの大きい順に並ぶよう手squareを挿入する．
+    private void insert(int[] squares, int n, int square, int score) {
+        int i = n;
+        while (i > 0 && scores[i - 1] < score) {
+            squares[i] = squares[i - 1];
+            scores[i] = scores[i - 1];
+            i--;
+        }
+        squares[i] = square;
+        scores[i] = score;
+    }
+
+    // X打ちのマスに隣接する隅
+    private static long adjacentCorner(int square) {
+        int x = (square & 7) == 1 ? 0 : 7;
+        int y = (square >>> 3) == 1 ? 0 : 7;
+        return 1L << (y * 8 + x);
+    }
+}
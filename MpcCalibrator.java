@@ -0,0 +1,202 @@
+package j2.review02;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MpcCalibrator - Multi-ProbCutの係数を自己対戦の局面から求めるツール
+ *
+ * 1. Egaroucidの浅い探索に乱数を混ぜた自己対戦で局面を集める
+ * 2. 各局面を深さ0からmaxDepthまで(MPCなしで)探索し，評価値を記録する
+ * 3. 段階・深さの組(d, shallowDepth(d))ごとに v = a * v' + b を最小二乗法で当てはめ，
+ *    残差の標準偏差をσとする
+ * 4. 結果をMpcParametersの係数ファイルに書き出す
+ *
+ * 対戦と探索は局面ごとに独立なので，CPUコア数のスレッドで並列に行う．
+ * 使い方: java j2.review02.MpcCalibrator [対戦数] [最大深さ] [出力ファイル]
+ */
+public class MpcCalibrator {
+
+    private static final int DEFAULT_GAMES = 100;
+    private static final int DEFAULT_MAX_DEPTH = 8;
+    private static final int RANDOM_OPENING_MOVES = 8; // 序盤の何手をランダムに打つか
+    private static final double RANDOM_MOVE_RATE = 0.1; // それ以降にランダムな手を打つ確率
+    private static final int SAMPLE_INTERVAL = 3;       // 何手ごとに局面を採るか
+    private static final int MIN_SAMPLES = 30;          // これより標本が少ない組は既定値のまま
+    private static final int TT_SIZE_MB = 4;
+
+    // 段階・深さの組ごとの (v', v) の集計 (標本は保持せず和だけを持つ)
+    private static class Regression {
+        long n;
+        double sx, sy, sxx, sxy, syy;
+
+        synchronized void add(int x, int y) {
+            n++;
+            sx += x;
+            sy += y;
+            sxx += (double) x * x;
+            sxy += (double) x * y;
+            syy += (double) y * y;
+        }
+
+        double slope() {
+            double denominator = n * sxx - sx * sx;
+            return denominator > 0 ? (n * sxy - sx * sy) / denominator : 1.0;
+        }
+
+        double intercept() {
+            return (sy - slope() * sx) / n;
+        }
+
+        // 残差の標準偏差 (最小二乗法の残差平方和は Σy^2 - aΣxy - bΣy)
+        double sigma() {
+            double residual = syy - slope() * sxy - intercept() * sy;
+            return Math.sqrt(Math.max(0, residual / n));
+        }
+    }
+
+    private final int maxDepth;
+    private final Regression[][] regressions;
+
+    public MpcCalibrator(int maxDepth) {
+        this.maxDepth = Math.min(maxDepth, MpcParameters.MAX_DEPTH);
+        this.regressions = new Regression[MpcParameters.PHASES][MpcParameters.MAX_DEPTH + 1];
+        for (int phase = 0; phase < MpcParameters.PHASES; phase++) {
+            for (int depth = 0; depth <= MpcParameters.MAX_DEPTH; depth++) {
+                regressions[phase][depth] = new Regression();
+            }
+        }
+    }
+
+    // 1局の自己対戦を行い，採った局面の探索値を集計する．
+    public void playAndSample(long seed) {
+        Random random = new Random(seed);
+        Egaroucid engine = new Egaroucid(0, false, TT_SIZE_MB);
+        engine.setMpcParameters(null);
+        BitBoard board = new BitBoard();
+
+        for (int ply = 0; ; ply++) {
+            long moves = board.legalMoves();
+            if (moves == 0) {
+                board.pass();
+                if (board.legalMoves() == 0) {
+                    return;
+                }
+                continue;
+            }
+            int empties = 64 - board.getCount(0) - board.getCount(1);
+            if (empties <= maxDepth) {
+                return;
+            }
+            if (ply >= RANDOM_OPENING_MOVES && ply % SAMPLE_INTERVAL == 0) {
+                sample(engine, board);
+            }
+            board.put(chooseMove(engine, board, moves, ply, random));
+        }
+    }
+
+    // 序盤と一定の確率でランダムに，それ以外は2手先まで読んで最もよい手を選ぶ．
+    // (各手の後を深さ1で読むのと同じ．searchValuesと違い置換表を消さずに1回の探索で済ませる)
+    private int chooseMove(Egaroucid engine, BitBoard board, long moves, int ply, Random random) {
+        int count = Long.bitCount(moves);
+        if (ply < RANDOM_OPENING_MOVES || random.nextDouble() < RANDOM_MOVE_RATE) {
+            long m = moves;
+            for (int skip = random.nextInt(count); skip > 0; skip--) {
+                m &= m - 1;
+            }
+            return Long.numberOfTrailingZeros(m);
+        }
+        return engine.searchBestMove(board, 2);
+    }
+
+    // 局面boardを各深さで探索し，(浅い探索値, 深い探索値) の組を集計に加える．
+    private void sample(Egaroucid engine, BitBoard board) {
+        int[] values = engine.searchValues(board, maxDepth);
+        int phase = MpcParameters.phase(board.getCount(0) + board.getCount(1));
+        for (int depth = MpcParameters.MIN_DEPTH; depth <= maxDepth; depth++) {
+            int shallow = values[MpcParameters.shallowDepth(depth)];
+            int deep = values[depth];
+            // 勝敗が確定した値は予測の対象外
+            if (Math.abs(shallow) < Egaroucid.WIN_SCORE && Math.abs(deep) < Egaroucid.WIN_SCORE) {
+                regressions[phase][depth].add(shallow, deep);
+            }
+        }
+    }
+
+    // 集計から係数を求める．標本の少ない組は既定値のままにする．
+    public MpcParameters fit() {
+        MpcParameters parameters = new MpcParameters();
+        for (int phase = 0; phase < MpcParameters.PHASES; phase++) {
+            for (int depth = MpcParameters.MIN_DEPTH; depth <= maxDepth; depth++) {
+                Regression r = regressions[phase][depth];
+                if (r.n >= MIN_SAMPLES) {
+                    parameters.set(phase, depth, r.slope(), r.intercept(), r.sigma());
+                }
+            }
+        }
+        return parameters;
+    }
+
+    // 段階・深さごとの標本数と係数を表示する．
+    public void printSummary(MpcParameters parameters) {
+        for (int phase = 0; phase < MpcParameters.PHASES; phase++) {
+            for (int depth = MpcParameters.MIN_DEPTH; depth <= maxDepth; depth++) {
+                System.out.printf("段階 %d 深さ %2d/%d: 標本 %5d, a = %.3f, b = %8.1f, σ = %7.1f\n",
+                        phase, depth, MpcParameters.shallowDepth(depth), regressions[phase][depth].n,
+                        parameters.getSlope(phase, depth), parameters.getIntercept(phase, depth),
+                        parameters.getSigma(phase, depth));
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_GAMES;
+        int maxDepth = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_DEPTH;
+        String output = args.length > 2 ? args[2] : MpcParameters.DEFAULT_FILE;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("MPC係数の計測: %d局, 最大深さ %d, 同時に%d局\n", games, maxDepth, parallelism);
+        MpcCalibrator calibrator = new MpcCalibrator(maxDepth);
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        AtomicInteger finished = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < games; i++) {
+            final long seed = i;
+            futures.add(pool.submit(() -> {
+                calibrator.playAndSample(seed);
+                System.out.printf("対戦 %d/%d 終了\n", finished.incrementAndGet(), games);
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            System.err.println("計測中にエラーが発生しました: " + e.getCause());
+            return;
+        } finally {
+            pool.shutdown();
+        }
+
+        MpcParameters parameters = calibrator.fit();
+        calibrator.printSummary(parameters);
+        try {
+            parameters.save(Paths.get(output));
+        } catch (IOException e) {
+            System.err.println("係数ファイルを書き出せません: " + e.getMessage());
+            return;
+        }
+        System.out.printf("%sに書き出しました (%.1f秒)\n", output, (System.currentTimeMillis() - start) / 1000.0);
+    }
+}
@@ -0,0 +1,208 @@
+package j2.review02;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * MpcParameters - Multi-ProbCut(MPC)で使う予測式の係数
+ *
+ * 深さdの探索値vを，同じ局面の浅い深さd'の探索値v'から
+ *   v ≒ a * v' + b  (誤差の標準偏差 σ)
+ * と予測する．null windowの探索で v >= β が見込めるかは
+ *   v' >= (β + t * σ - b) / a
+ * を調べればよく，成り立てば深く読まずにβで打ち切る (αの側も同様)．
+ * tは打ち切りの確信度で，大きいほど安全だが枝刈りは減る．
+ *
+ * 係数は石数で分けた段階ごと，深さdごとに持つ (これがMulti-ProbCutの「Multi」)．
+ * 浅い深さd'はshallowDepth(d)で決まり，dとd'の偶奇はそろえる．
+ *
+ * 既定値は a = 1，b = 0 と，深さの差に比例して大きくなるσの目安である．
+ * MpcCalibratorで評価関数に合わせて求めた値はテキストファイルに保存し，
+ * load()で読み込む．ファイルの形式は
+ *   confidence t
+ *   段階 深さ a b σ   (1行に1組，#から行末まではコメント)
+ * で，ファイルにない組は既定値のままにする．
+ * loadDefault()がファイルを読むのはJVM内で1回だけで，呼び出しごとにそのコピーを返す．
+ */
+public class MpcParameters {
+
+    public static final int MIN_DEPTH = 3;     // MPCを使う最小の深さ
+    public static final int MAX_DEPTH = 24;    // 係数を持つ最大の深さ
+    public static final int PHASES = 6;        // 石数による段階の数
+    private static final int DISCS_PER_PHASE = 10;
+
+    public static final String DEFAULT_FILE = "mpc.txt"; // 起動時に読み込む係数ファイル
+
+    public static final double DEFAULT_CONFIDENCE = 1.0;
+    private static final double DEFAULT_SIGMA_BASE = 800;
+    private static final double DEFAULT_SIGMA_PER_PLY = 100;
+
+    private final double[][] slope = new double[PHASES][MAX_DEPTH + 1];
+    private final double[][] intercept = new double[PHASES][MAX_DEPTH + 1];
+    private final double[][] sigma = new double[PHASES][MAX_DEPTH + 1];
+    private double confidence;
+
+    private static MpcParameters defaultParameters; // DEFAULT_FILEから読んだ係数 (最初の呼び出しで読む)
+
+    // 既定の係数と確信度で生成する．
+    public MpcParameters() {
+        this(DEFAULT_CONFIDENCE);
+    }
+
+    // 既定の係数と確信度tで生成する．
+    public MpcParameters(double confidence) {
+        this.confidence = confidence;
+        for (int phase = 0; phase < PHASES; phase++) {
+            for (int depth = MIN_DEPTH; depth <= MAX_DEPTH; depth++) {
+                set(phase, depth, 1.0, 0.0,
+                        DEFAULT_SIGMA_BASE + DEFAULT_SIGMA_PER_PLY * (depth - shallowDepth(depth)));
+            }
+        }
+    }
+
+    // otherのコピーを生成する (コピーの確信度や係数を変えてもotherは変わらない)．
+    public MpcParameters(MpcParameters other) {
+        this.confidence = other.confidence;
+        for (int phase = 0; phase < PHASES; phase++) {
+            System.arraycopy(other.slope[phase], 0, slope[phase], 0, MAX_DEPTH + 1);
+            System.arraycopy(other.intercept[phase], 0, intercept[phase], 0, MAX_DEPTH + 1);
+            System.arraycopy(other.sigma[phase], 0, sigma[phase], 0, MAX_DEPTH + 1);
+        }
+    }
+
+    // 深さdepthの予測に使う浅い探索の深さ (depthとの差は2以上の偶数)
+    public static int shallowDepth(int depth) {
+        return (depth / 4) * 2 + (depth & 1);
+    }
+
+    // 盤上の石数から段階を求める．
+    public static int phase(int discs) {
+        return Math.min(PHASES - 1, Math.max(0, (discs - 4) / DISCS_PER_PHASE));
+    }
+
+    // 段階phase，深さdepthの係数を設定する．
+    public void set(int phase, int depth, double a, double b, double s) {
+        slope[phase][depth] = a;
+        intercept[phase][depth] = b;
+        sigma[phase][depth] = s;
+    }
+
+    // 段階phase，深さdepthの係数a，b，σを返す．
+    public double getSlope(int phase, int depth) {
+        return slope[phase][depth];
+    }
+
+    public double getIntercept(int phase, int depth) {
+        return intercept[phase][depth];
+    }
+
+    public double getSigma(int phase, int depth) {
+        return sigma[phase][depth];
+    }
+
+    // 打ち切りの確信度tを返す．
+    public double getConfidence() {
+        return confidence;
+    }
+
+    // 打ち切りの確信度tを設定する．
+    public void setConfidence(double confidence) {
+        this.confidence = confidence;
+    }
+
+    // 浅い探索の値がこれ以上なら，深さdepthの探索値がbeta以上と見込める
+    public int upperBound(int discs, int depth, int beta) {
+        int phase = phase(discs);
+        double bound = (beta + confidence * sigma[phase][depth] - intercept[phase][depth]) / slope[phase][depth];
+        return (int) Math.ceil(bound);
+    }
+
+    // 浅い探索の値がこれ以下なら，深さdepthの探索値がalpha以下と見込める
+    public int lowerBound(int discs, int depth, int alpha) {
+        int phase = phase(discs);
+        double bound = (alpha - confidence * sigma[phase][depth] - intercept[phase][depth]) / slope[phase][depth];
+        return (int) Math.floor(bound);
+    }
+
+    // 係数ファイルを読み込む．
+    public static MpcParameters load(Path path) throws IOException {
+        MpcParameters parameters = new MpcParameters();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                try {
+                    if (fields[0].equals("confidence") && fields.length == 2) {
+                        parameters.setConfidence(Double.parseDouble(fields[1]));
+                    } else if (fields.length == 5) {
+                        int phase = Integer.parseInt(fields[0]);
+                        int depth = Integer.parseInt(fields[1]);
+                        if (phase < 0 || phase >= PHASES || depth < MIN_DEPTH || depth > MAX_DEPTH) {
+                            throw new IOException(path + ":" + lineNumber + ": 段階か深さが範囲外です");
+                        }
+                        parameters.set(phase, depth, Double.parseDouble(fields[2]),
+                                Double.parseDouble(fields[3]), Double.parseDouble(fields[4]));
+                    } else {
+                        throw new IOException(path + ":" + lineNumber + ": 形式が正しくありません");
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IOException(path + ":" + lineNumber + ": 数値が読めません", e);
+                }
+            }
+        }
+        return parameters;
+    }
+
+    // DEFAULT_FILEの係数のコピーを返す．ファイルを読むのはJVM内で最初の呼び出しだけで，
+    // 呼び出し側はそれぞれ自分のコピーを持つので，setConfidenceなどで変えても他に影響しない．
+    public static synchronized MpcParameters loadDefault() {
+        if (defaultParameters == null) {
+            defaultParameters = readDefault();
+        }
+        return new MpcParameters(defaultParameters);
+    }
+
+    // DEFAULT_FILEがあれば読み込み，なければ既定値を返す．読めない場合は既定値を使い，理由を表示する．
+    private static MpcParameters readDefault() {
+        try {
+            return load(Paths.get(DEFAULT_FILE));
+        } catch (NoSuchFileException e) {
+            return new MpcParameters();
+        } catch (IOException e) {
+            System.err.println("MPCの係数ファイルを読み込めないため既定値を使います: " + e.getMessage());
+            return new MpcParameters();
+        }
+    }
+
+    // 係数ファイルに書き出す．
+    public void save(Path path) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+            writer.println("# Multi-ProbCut parameters (v = a * v' + b, error sigma)");
+            writer.printf(Locale.ROOT, "confidence %s%n", confidence);
+            writer.println("# phase depth a b sigma");
+            for (int phase = 0; phase < PHASES; phase++) {
+                for (int depth = MIN_DEPTH; depth <= MAX_DEPTH; depth++) {
+                    writer.printf(Locale.ROOT, "%d %d %.4f %.2f %.2f%n", phase, depth,
+                            slope[phase][depth], intercept[phase][depth], sigma[phase][depth]);
+                }
+            }
+        }
+    }
+}
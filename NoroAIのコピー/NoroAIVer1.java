@@ -1,18 +1,21 @@
 // BEGIN
 package j2.review02.s24k0115;
 
-import java.util.ArrayList;
 import java.util.Random;
 
 import j2.review02.AI;
+import j2.review02.BitBoard;
 import j2.review02.Board;
 import j2.review02.Location;
+import j2.review02.WeightedBitBoard;
 
 // 課題で作成するリバーシAI
 
 public class NoroAIVer1 extends AI {
     protected final int depthLimit; // 探索の深さ制限
     protected final Random random; // 乱数生成器
+    // 残り深さごとの手の並び (探索中に配列を作らないように使い回す)
+    protected final int[][] squareBuffer;
     protected Location result; // 計算結果
 
     // 色colorのプレイヤーのリバーシAIを生成する．
@@ -27,6 +30,7 @@ public class NoroAIVer1 extends AI {
 			  {-20, -40,  -5,  -5,  -5,  -5, -40, -20},
 			  {120, -20,  20,   5,   5,   5, -20, 120}
 			};
+	int pointSquares[] = WeightedBitBoard.byColumn(pointList);//マス番号順の重み
 
 
 	int eneyColor = Board.flip(this.color);
@@ -38,28 +42,14 @@ public class NoroAIVer1 extends AI {
         super(color, timeLimitedFlag);
         this.depthLimit = 9;
         random = new Random();
+        squareBuffer = new int[depthLimit + 1][64];
     }
     
-    public int getPoint(Board board) {
-
-    	
-    	
-    	int myPoint = 0;
-    	int enemyPoint = 0;
-    	for(int x = 0; x < 8; x ++) {
-    		for(int y = 0; y < 8; y ++) {
-    			if(board.get(x, y) == this.color) {
-    				myPoint += pointList[x][y];
-    			}
-    			if(board.get(x, y) == this.eneyColor){
-    				enemyPoint += pointList[x][y];
-    			}
-    		}
-    	}
-    	return myPoint - enemyPoint;
+    public int getPoint(WeightedBitBoard board) {//置いた石と返った石の分だけ盤面側で更新される
+    	return board.getWeightScore(this.color);
     }
     
-    public int evaluateEdge(Board board) {
+    public int evaluateEdge(BitBoard board) {
     	for(int i = 0; i < 8; i ++) {
     		
     	}
@@ -68,31 +58,40 @@ public class NoroAIVer1 extends AI {
 	
     
     
-    protected int evaluateEnd(Board board, int remainingDepth) {//終盤での評価値
+    protected int evaluateEnd(BitBoard board, int remainingDepth) {//終盤での評価値
         var c = board.getCount(color);//手番
         var d = c - board.getCount(Board.flip(color));//0->1, 1->0
         return d > 0 ? c + 1000 * remainingDepth : c - 1000 * remainingDepth;
     }
     
-    protected void randomizeLocations(ArrayList<Location> locations) {
-        var copy = new ArrayList<Location>(locations);
-        locations.clear();
-        for (var i = copy.size(); i > 0; i--) {
-            locations.add(copy.remove(random.nextInt(i)));
+    // 合法手のマス番号をランダムな順にsquareBuffer[remainingDepth]に書き，手の数を返す．
+    // 残りの手から1つずつ乱数で選んで前に詰める (配列を作らずにその場で並べ替える)
+    protected int randomSquares(BitBoard board, int remainingDepth) {
+        var squares = squareBuffer[remainingDepth];
+        var count = 0;
+        for (var m = board.legalMoves(); m != 0; m &= m - 1) {
+            squares[count++] = Long.numberOfTrailingZeros(m);
+        }
+        for (var k = 0; k < count; k++) {
+            var j = k + random.nextInt(count - k);
+            var square = squares[j];
+            System.arraycopy(squares, k, squares, k + 1, j - k);
+            squares[k] = square;
         }
+        return count;
     }
-    protected int evaluate(Board board) {//自分の色の枚数を返す
+    protected int evaluate(WeightedBitBoard board) {//自分の色の枚数を返す
     	
         return getPoint(board);
     }
     
-    protected int minimizeBeta(Board board, int remainingDepth, int alpha, int beta) {
+    protected int minimizeBeta(WeightedBitBoard board, int remainingDepth, int alpha, int beta) {
         if (remainingDepth == 0) {
             return evaluate(board);//評価値を返す
         }
-        var locs = board.enumerateLegalLocations();//おけるLocationのリスト
-        randomizeLocations(locs);
-        if (locs.size() == 0) {
+        var count = randomSquares(board, remainingDepth);//おけるマスの数
+        var squares = squareBuffer[remainingDepth];//おけるマスの並び (ランダムな順)
+        if (count == 0) {
             board.pass();//おける場所がないためパスした判定
             var score = board.isLegal() ?//2回連続でパスかの判定
                 maximizeAlpha(board, remainingDepth - 1, alpha, beta) ://おけた場合先をscoreにする
@@ -100,8 +99,8 @@ public class NoroAIVer1 extends AI {
             board.undo();// 一つ前の手に戻す
             return score;
         }
-        for (var i = 0; i < locs.size(); i++) {//おける場所を全探索
-            board.put(locs.get(i));//1手盤面を進める
+        for (var i = 0; i < count; i++) {//おける場所を全探索
+            board.put(squares[i]);//1手盤面を進める
             var score = maximizeAlpha(board, remainingDepth - 1, alpha, beta);
             board.undo();
             if(beta > score) {
@@ -110,7 +109,7 @@ public class NoroAIVer1 extends AI {
             if(alpha >= beta) {
             	return beta;
             }
-            if (timeLimitedFlag && remainingDepth >= 4 &&
+            if (isCancelled() || timeLimitedFlag && remainingDepth >= 4 &&
                     getTime() > 0.95 * TIME_LIMIT) {
                 break;
             }
@@ -118,13 +117,13 @@ public class NoroAIVer1 extends AI {
         return beta;
     }
     
-    protected int maximizeAlpha(Board board, int remainingDepth, int alpha, int beta) {
+    protected int maximizeAlpha(WeightedBitBoard board, int remainingDepth, int alpha, int beta) {
         if (remainingDepth == 0) {
             return evaluate(board);
         }
-        var locs = board.enumerateLegalLocations();
-        randomizeLocations(locs);
-        if (locs.size() == 0) {
+        var count = randomSquares(board, remainingDepth);
+        var squares = squareBuffer[remainingDepth];
+        if (count == 0) {
             board.pass();
             var score = board.isLegal() ?
                 minimizeBeta(board, remainingDepth - 1, alpha, beta) :
@@ -132,14 +131,14 @@ public class NoroAIVer1 extends AI {
             board.undo();
             return score;
         }
-        for (var i = 0; i < locs.size(); i++) {
-            board.put(locs.get(i));
+        for (var i = 0; i < count; i++) {
+            board.put(squares[i]);
             var score = minimizeBeta(board, remainingDepth - 1, alpha, beta);
             board.undo();
             if(alpha < score) {
             	alpha = score;
                 if (remainingDepth == depthLimit) {
-                    result = locs.get(i);
+                    result = BitBoard.location(squares[i]);
                 }
             }
             if(alpha >= beta) {
@@ -147,7 +146,7 @@ public class NoroAIVer1 extends AI {
             }
 
 
-            if (timeLimitedFlag && remainingDepth >= 4 &&
+            if (isCancelled() || timeLimitedFlag && remainingDepth >= 4 &&
                     getTime() > 0.95 * TIME_LIMIT) {
                 break;
             }
@@ -157,7 +156,8 @@ public class NoroAIVer1 extends AI {
 
     // 局面boardに対する手を計算し，石を置くマスの座標を返す．
     @Override
-    public Location compute(Board board) {
+    public Location compute(Board original) {
+        WeightedBitBoard board = new WeightedBitBoard(original, pointSquares);
         result = null;
     	int alpha0 = -10000;
     	int beta0  =  10000;
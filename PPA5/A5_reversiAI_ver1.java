@@ -1,6 +1,5 @@
 package j2.review02;
 
-import java.util.ArrayList;
 import java.util.Random;
 // TODO: 使用者の環境に応じてパッケージ名を変更してください
 import j2.review02.s24kXXXX.AI; // 使用者の環境に応じて変更してください
@@ -9,26 +8,27 @@ public class A5_reversiAI_ver1 extends AI {
 
     private final int depthLimit;
     private final Random random;
+    // 残り深さごとの手の並び (探索中に配列を作らないように使い回す)
+    private final int[][] squareBuffer;
     private Location result;
 
     public A5_reversiAI_ver1(int color, boolean timeLimitedFlag) {
         super(color, timeLimitedFlag);
         this.depthLimit = 7;
         random = new Random();
+        squareBuffer = new int[depthLimit + 1][64];
     }
 
     // 局面の評価値を計算
-    private int evaluate(Board board) {
+    private int evaluate(BitBoard board) {
         int phase = board.getCount(0) + board.getCount(1);
         
         int myCorners = countCorners(board, color);
         int oppCorners = countCorners(board, Board.flip(color));
         int cornerScore = 150 * (myCorners - oppCorners);
         
-        int myMoves = board.enumerateLegalLocations().size();
-        board.pass();
-        int oppMoves = board.isLegal() ? board.enumerateLegalLocations().size() : 0;
-        board.undo();
+        int myMoves = Long.bitCount(board.legalMoves());
+        int oppMoves = board.mobility(Board.flip(board.getCurrentColor()));
         
         int mobilityScore;
         if (phase < 20) {
@@ -60,7 +60,7 @@ public class A5_reversiAI_ver1 extends AI {
     }
 
     // 隅の石の数を数える
-    private int countCorners(Board board, int c) {
+    private int countCorners(BitBoard board, int c) {
         int count = 0;
         if (board.get(0, 0) == c) count++;
         if (board.get(7, 0) == c) count++;
@@ -70,7 +70,7 @@ public class A5_reversiAI_ver1 extends AI {
     }
 
     // X位置の石を数える
-    private int countXSquares(Board board, int c) {
+    private int countXSquares(BitBoard board, int c) {
         int count = 0;
         if (board.get(0, 0) == -1 && board.get(1, 1) == c) count++;
         if (board.get(7, 0) == -1 && board.get(6, 1) == c) count++;
@@ -80,7 +80,7 @@ public class A5_reversiAI_ver1 extends AI {
     }
 
     // C位置の石を数える
-    private int countCSquares(Board board, int c) {
+    private int countCSquares(BitBoard board, int c) {
         int count = 0;
         if (board.get(0, 0) == -1 && (board.get(0, 1) == c || board.get(1, 0) == c)) {
             if (board.get(0, 1) == c) count++;
@@ -101,52 +101,53 @@ public class A5_reversiAI_ver1 extends AI {
         return count;
     }
 
-    // エッジの安定度を評価
-    private int countEdgeStability(Board board, int c) {
-        int stability = 0;
-        
-        for (int i = 0; i < 8; i++) {
-            if (board.get(i, 0) == c) stability++;
-            if (board.get(i, 7) == c) stability++;
-            if (board.get(0, i) == c) stability++;
-            if (board.get(7, i) == c) stability++;
-        }
-        
-        return stability;
+    // エッジの安定度を評価 (辺の並びごとの確定石を表引きで数える)
+    private int countEdgeStability(BitBoard board, int c) {
+        long mine = c == board.getCurrentColor() ? board.getPlayer() : board.getOpponent();
+        long theirs = c == board.getCurrentColor() ? board.getOpponent() : board.getPlayer();
+        return Stability.countEdgeStableDiscs(mine, theirs);
     }
 
     // 終局時の評価値を計算
-    private int evaluateEnd(Board board, int remainingDepth) {
+    private int evaluateEnd(BitBoard board, int remainingDepth) {
         int c = board.getCount(color);
         int d = c - board.getCount(Board.flip(color));
         return d > 0 ? c + 1000 * remainingDepth : c - 1000 * remainingDepth;
     }
 
-    // 手の順序をランダム化し優先順位をつける
-    private void randomizeLocations(ArrayList<Location> locations) {
-        ArrayList<Location> copy = new ArrayList<>(locations);
-        locations.clear();
-        for (int i = copy.size(); i > 0; i--) {
-            locations.add(copy.remove(random.nextInt(i)));
+    // 合法手のマス番号をランダムな順にsquareBuffer[remainingDepth]に書き，手の数を返す．
+    // 残りの手から1つずつ乱数で選んで前に詰める (配列を作らずにその場で並べ替える)
+    private int randomSquares(BitBoard board, int remainingDepth) {
+        int[] squares = squareBuffer[remainingDepth];
+        int count = 0;
+        for (long m = board.legalMoves(); m != 0; m &= m - 1) {
+            squares[count++] = Long.numberOfTrailingZeros(m);
+        }
+        for (int k = 0; k < count; k++) {
+            int j = k + random.nextInt(count - k);
+            int square = squares[j];
+            System.arraycopy(squares, k, squares, k + 1, j - k);
+            squares[k] = square;
         }
+        return count;
     }
 
     // αβ法で評価値を最小化
-    private int minimize(Board board, int remainingDepth, int alpha, int beta) {
+    private int minimize(BitBoard board, int remainingDepth, int alpha, int beta) {
         if (remainingDepth == 0) {
             return evaluate(board);
         }
-        ArrayList<Location> locs = board.enumerateLegalLocations();
-        randomizeLocations(locs);
-        if (locs.isEmpty()) {
+        int count = randomSquares(board, remainingDepth);
+        int[] squares = squareBuffer[remainingDepth];
+        if (count == 0) {
             board.pass();
             int score = board.isLegal() ? maximize(board, remainingDepth - 1, alpha, beta) : evaluateEnd(board, remainingDepth);
             board.undo();
             return score;
         }
         int min = Integer.MAX_VALUE;
-        for (int i = 0; i < locs.size(); i++) {
-            board.put(locs.get(i));
+        for (int i = 0; i < count; i++) {
+            board.put(squares[i]);
             int score = maximize(board, remainingDepth - 1, alpha, beta);
             board.undo();
             if (score < min) {
@@ -158,7 +159,7 @@ public class A5_reversiAI_ver1 extends AI {
             if (score < beta) {
                 beta = score;
             }
-            if (timeLimitedFlag && remainingDepth >= 4 && getTime() > 0.95 * TIME_LIMIT) {
+            if (isCancelled() || timeLimitedFlag && remainingDepth >= 4 && getTime() > 0.95 * TIME_LIMIT) {
                 break;
             }
         }
@@ -166,27 +167,27 @@ public class A5_reversiAI_ver1 extends AI {
     }
 
     // αβ法で評価値を最大化
-    private int maximize(Board board, int remainingDepth, int alpha, int beta) {
+    private int maximize(BitBoard board, int remainingDepth, int alpha, int beta) {
         if (remainingDepth == 0) {
             return evaluate(board);
         }
-        ArrayList<Location> locs = board.enumerateLegalLocations();
-        randomizeLocations(locs);
-        if (locs.isEmpty()) {
+        int count = randomSquares(board, remainingDepth);
+        int[] squares = squareBuffer[remainingDepth];
+        if (count == 0) {
             board.pass();
             int score = board.isLegal() ? minimize(board, remainingDepth - 1, alpha, beta) : evaluateEnd(board, remainingDepth);
             board.undo();
             return score;
         }
         int max = Integer.MIN_VALUE;
-        for (int i = 0; i < locs.size(); i++) {
-            board.put(locs.get(i));
+        for (int i = 0; i < count; i++) {
+            board.put(squares[i]);
             int score = minimize(board, remainingDepth - 1, alpha, beta);
             board.undo();
             if (score > max) {
                 max = score;
                 if (remainingDepth == depthLimit) {
-                    result = locs.get(i);
+                    result = BitBoard.location(squares[i]);
                 }
             }
             if (max >= beta) {
@@ -195,7 +196,7 @@ public class A5_reversiAI_ver1 extends AI {
             if (score > alpha) {
                 alpha = score;
             }
-            if (timeLimitedFlag && remainingDepth >= 4 && getTime() > 0.95 * TIME_LIMIT) {
+            if (isCancelled() || timeLimitedFlag && remainingDepth >= 4 && getTime() > 0.95 * TIME_LIMIT) {
                 break;
             }
         }
@@ -203,7 +204,8 @@ public class A5_reversiAI_ver1 extends AI {
     }
 
     @Override
-    public Location compute(Board board) {
+    public Location compute(Board original) {
+        BitBoard board = new BitBoard(original);
         result = null;
         maximize(board, depthLimit, Integer.MIN_VALUE, Integer.MAX_VALUE);
         return result;
@@ -2,6 +2,9 @@ package j2.review02;
 
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import j2.review02.s24k0136.AI;
 
@@ -12,6 +15,25 @@ public class A5_ver2 extends AI {
     // 時間制限の何%まで使うか (92% = 5秒中4.6秒まで)
     private static final double TIME_MARGIN = 0.92;
 
+    // 並列探索で兄弟手を分割する最小の残り深さ (これより浅い部分木は逐次探索)
+    private static final int SPLIT_DEPTH = 4;
+
+    // 探索深さの上限 (残りの空きマス数を超えない)
+    private static final int MAX_SEARCH_DEPTH = 64;
+
+    // 手の並べ替えで優先度とマス番号を1つのintに詰めるときの，マス番号のビット数
+    private static final int SQUARE_BITS = 6;
+    private static final int SQUARE_MASK = (1 << SQUARE_BITS) - 1;
+
+    // この空きマス数以下では勝敗を読み切る
+    private static final int WLD_EMPTIES = 22;
+
+    // 勝敗読みに使う時間の割合 (残りは読み切れなかったときの反復深化探索に回す)
+    private static final double WLD_TIME_RATIO = 0.5;
+
+    // この空きマス数以下では終局まで完全に読み切る
+    private static final int EXACT_EMPTIES = 18;
+
     // 各マスの価値を表す重みテーブル
     // 角(120)は最も価値が高く、その隣(-20, -40)は危険
     private static final int[][] POSITION_WEIGHTS = {
@@ -24,17 +46,40 @@ public class A5_ver2 extends AI {
         {-20, -40, -5, -5, -5, -5, -40, -20},
         {120, -20, 20, 5, 5, 20, -20, 120}
     };
+    // POSITION_WEIGHTSをマス番号順に並べたもの (WeightedBitBoardに登録して差分更新する)
+    private static final int[] SQUARE_WEIGHTS = WeightedBitBoard.byRow(POSITION_WEIGHTS);
 
     //インスタンス変数 
 
     private final Random random;      // ランダム選択用
-    private long startTime;           // 探索開始時刻
-    private boolean timeOver;         // 時間切れフラグ
+    private final ForkJoinPool pool;  // 並列探索用 (逐次探索のときはnull)
+    private final TimeManager timeManager; // 持ち時間の管理
+    private final EndgameSolver endgameSolver; // 終盤の勝敗読み・完全読み
+    private String solveReport;       // 直前の手を終盤読みで決めた場合の結果
+    private long solveLimit;          // 終盤読みを打ち切る時間 (この手の計算開始からのナノ秒)
+    private volatile boolean timeOver; // 時間切れフラグ
     private Location bestMoveFound;   // 現在見つかっている最善手
 
+    // 残り深さごとの手の並び (逐次探索で使い回す，並列探索のスレッドごとに1つ)
+    private final ThreadLocal<int[][]> moveStacks =
+            ThreadLocal.withInitial(() -> new int[MAX_SEARCH_DEPTH + 1][1 << SQUARE_BITS]);
+
     public A5_ver2(int color, boolean timeLimitedFlag) {
+        this(color, timeLimitedFlag, 1);
+    }
+
+    /*
+    並列度を指定して生成する
+    Args:
+       parallelism : 探索スレッド数 (2以上でYoung Brothers Wait並列探索)
+     */
+    public A5_ver2(int color, boolean timeLimitedFlag, int parallelism) {
         super(color, timeLimitedFlag);
         random = new Random();
+        pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        // 並列探索中はワーカースレッドのCPU時間では測れないので実時間で管理する
+        timeManager = new TimeManager(clock, (long) (TIME_LIMIT * TIME_MARGIN), pool != null);
+        endgameSolver = new EndgameSolver(16, this::isSolveTimeRunningOut);
     }
 
     /*
@@ -45,7 +90,8 @@ public class A5_ver2 extends AI {
        bestMoveFound : 選択した手
      */
     @Override
-    public Location compute(Board board) {
+    public Location compute(Board original) {
+        WeightedBitBoard board = new WeightedBitBoard(original, SQUARE_WEIGHTS);
         // 合法手を取得
         ArrayList<Location> legalMoves = board.enumerateLegalLocations();
         if (legalMoves.isEmpty()) {
@@ -53,20 +99,54 @@ public class A5_ver2 extends AI {
         }
 
         // 初期化
-        startTime = getTime();
+        timeManager.startMove(64 - board.getCount(0) - board.getCount(1), legalMoves.size());
         timeOver = false;
 
         // フォールバック用：評価関数で最も良さそうな手を選ぶ
         bestMoveFound = selectBestMoveByEvaluation(legalMoves, board);
 
+        // 終盤：終局まで完全に読み切る
+        // 時間切れで中断しても，読み切れた手があればその中の最善手を使う
+        int emptySquares = 64 - board.getCount(0) - board.getCount(1);
+        solveReport = null;
+        if (emptySquares <= EXACT_EMPTIES) {
+            solveLimit = timeManager.getHardLimit();
+            endgameSolver.solve(board);
+            solveReport = endgameSolver.getReport();
+            if (endgameSolver.getBestMove() != null) {
+                return endgameSolver.getBestMove();
+            }
+            return bestMoveFound;
+        }
+
+        // 終盤の手前：勝敗だけを読み切る
+        // 勝ちか引き分けを証明できたらその手を打ち，負けや時間切れなら通常の探索に任せる
+        // 通常の探索の時間を残すため，勝敗読みは予算のWLD_TIME_RATIOまでで打ち切る
+        if (emptySquares <= WLD_EMPTIES) {
+            solveLimit = (long) (timeManager.getBudget() * WLD_TIME_RATIO);
+            int result = endgameSolver.solveWinLossDraw(board);
+            solveReport = endgameSolver.getReport();
+            if (!endgameSolver.isAborted() && result != EndgameSolver.LOSS
+                    && endgameSolver.getBestMove() != null) {
+                return endgameSolver.getBestMove();
+            }
+        }
+
         // 探索の深さを決定（盤面の空きマス数に応じて調整）
         int maxDepth = calculateSearchDepth(board);
 
         // 反復深化探索：深さ1から順に深くしていく
         // 時間切れになる前に浅い探索結果を保持しておく
         for (int depth = 1; depth <= maxDepth; depth++) {
+            // 予算を使い切ったか，次の深さが上限までに終わらなそうなら打ち切る
+            if (timeLimitedFlag && !timeManager.canStartIteration()) {
+                break;
+            }
+
             // この深さでの最善手を探す
-            Location moveAtDepth = searchAtDepth(board, depth);
+            Location moveAtDepth = pool != null
+                    ? searchAtDepthParallel(board, depth)
+                    : searchAtDepth(board, depth);
 
             // 時間切れで中断された場合、前回の結果を使う
             if (timeOver) {
@@ -76,17 +156,22 @@ public class A5_ver2 extends AI {
             // 完了した探索の結果を採用
             if (moveAtDepth != null) {
                 bestMoveFound = moveAtDepth;
-            }
-
-            // 時間が迫っていたら探索を打ち切る
-            if (timeLimitedFlag && isTimeRunningOut()) {
-                break;
+                timeManager.iterationFinished(BitBoard.square(moveAtDepth));
             }
         }
 
         return bestMoveFound;
     }
 
+    /*
+    直前の手を終盤読みで決めた場合，その結果・ノード数・時間を返す
+    Returns:
+        solveReport : 終盤読みの結果 (終盤読みをしなかった場合はnull)
+     */
+    public String getSolveReport() {
+        return solveReport;
+    }
+
     /*
     指定した深さで探索を実行
     Args:
@@ -95,21 +180,22 @@ public class A5_ver2 extends AI {
     Returns:
         bestMove : この深さでの最善手
      */
-    private Location searchAtDepth(Board board, int depth) {
+    private Location searchAtDepth(WeightedBitBoard board, int depth) {
         Location bestMove = null;
         int bestScore = -INF;
 
         // 全ての合法手を取得して並び替え
-        ArrayList<Location> moves = board.enumerateLegalLocations();
-        sortMovesByPriority(board, moves);
+        int[] keys = moveStacks.get()[depth];
+        int count = sortMovesByPriority(board, board.legalMoves(), keys);
 
         // 各手を試す
-        for (Location move : moves) {
+        for (int i = 0; i < count; i++) {
             // 手を実行
-            board.put(move);
+            int square = keys[i] & SQUARE_MASK;
+            board.put(square);
 
             // 相手の番での評価を計算（符号を反転）
-            int score = -alphaBetaSearch(board, depth - 1, -INF, INF, false);
+            int score = -alphaBetaSearch(board, depth - 1, -INF, INF, false, null);
 
             // 手を戻す
             board.undo();
@@ -122,13 +208,169 @@ public class A5_ver2 extends AI {
             // より良い手が見つかったら更新
             if (score > bestScore) {
                 bestScore = score;
-                bestMove = move;
+                bestMove = BitBoard.location(square);
             }
         }
 
         return bestMove;
     }
 
+    /*
+    指定した深さで並列探索を実行 (Young Brothers Wait)
+    Args:
+        board : 盤面
+        depth : 探索深さ
+    Returns:
+        bestMove : この深さでの最善手
+     */
+    private Location searchAtDepthParallel(WeightedBitBoard board, int depth) {
+        SplitTask root = new SplitTask(new WeightedBitBoard(board), depth, -INF, INF, false, null, null);
+        pool.invoke(root);
+        return root.bestMove;
+    }
+
+    /*
+    Young Brothers Waitによる並列αβ探索のタスク
+    最初の子(長男)を逐次探索してα値を確定させてから，
+    残りの兄弟手を盤面のコピーとともにForkJoinPoolへ分配する．
+    兄弟間ではα値を共有し，β刈りが起きたら子孫のタスクに中断を知らせる．
+     */
+    private final class SplitTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L; // RecursiveTaskがSerializableなので付ける (直列化はしない)
+
+        private final WeightedBitBoard board;
+        private final int depth;
+        private final boolean passedBefore;
+        private final SplitTask parent;
+        private final Location move;       // 親局面からこの局面への手 (パスのときはnull)
+        private final boolean younger;     // 並列に分配された弟か
+        private int alpha;
+        private int beta;
+
+        private final AtomicInteger sharedAlpha = new AtomicInteger();
+        private volatile boolean cutoff;   // β刈りが起きたので残りの子は不要
+        private boolean valid;             // 中断されずに最後まで探索できたか
+        private Location bestMove;
+
+        // 窓が決まっている子 (ルート，長男，パス)
+        SplitTask(WeightedBitBoard board, int depth, int alpha, int beta,
+                boolean passedBefore, SplitTask parent, Location move) {
+            this(board, depth, passedBefore, parent, move, false);
+            this.alpha = alpha;
+            this.beta = beta;
+        }
+
+        // 探索開始時に親の共有α値から窓を決める弟
+        SplitTask(WeightedBitBoard board, int depth, SplitTask parent, Location move) {
+            this(board, depth, false, parent, move, true);
+        }
+
+        private SplitTask(WeightedBitBoard board, int depth, boolean passedBefore,
+                SplitTask parent, Location move, boolean younger) {
+            this.board = board;
+            this.depth = depth;
+            this.passedBefore = passedBefore;
+            this.parent = parent;
+            this.move = move;
+            this.younger = younger;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (younger) {
+                alpha = -parent.beta;
+                beta = -parent.sharedAlpha.get();
+            }
+
+            // 時間切れ，または祖先でβ刈りが起きていれば結果は使われない
+            if (isTimeRunningOut()) {
+                timeOver = true;
+            }
+            if (timeOver || isAborted()) {
+                return finish(evaluatePosition(board));
+            }
+
+            // 浅い部分木は分割せずに逐次探索 (祖先でβ刈りが起きたら途中で打ち切る)
+            if (depth < SPLIT_DEPTH && parent != null) {
+                return finish(alphaBetaSearch(board, depth, alpha, beta, passedBefore, this));
+            }
+
+            long legalMoves = board.legalMoves();
+            if (legalMoves == 0) {
+                if (passedBefore) {
+                    return finish(evaluateEndGame(board));
+                }
+                board.pass();
+                int value = -new SplitTask(board, depth - 1, -beta, -alpha, true, this, null).compute();
+                board.undo();
+                return finish(value);
+            }
+            // 長男の探索中にこのスレッドが別のタスクを実行することがあるので，
+            // 分割点の手の並びはスレッドごとの配列に置かず，タスクごとに持つ
+            int[] keys = new int[Long.bitCount(legalMoves)];
+            int count = sortMovesByPriority(board, legalMoves, keys);
+
+            // 長男は逐次探索
+            Location first = BitBoard.location(keys[0] & SQUARE_MASK);
+            board.put(first);
+            int bestValue = -new SplitTask(board, depth - 1, -beta, -alpha, false, this, first).compute();
+            board.undo();
+            bestMove = first;
+            if (bestValue >= beta || count == 1) {
+                return finish(bestValue);
+            }
+            sharedAlpha.set(Math.max(alpha, bestValue));
+
+            // 弟たちは並列に探索
+            ArrayList<SplitTask> brothers = new ArrayList<>();
+            for (int i = 1; i < count; i++) {
+                Location move = BitBoard.location(keys[i] & SQUARE_MASK);
+                WeightedBitBoard child = new WeightedBitBoard(board);
+                child.put(move);
+                brothers.add(new SplitTask(child, depth - 1, this, move));
+            }
+            invokeAll(brothers);
+
+            for (SplitTask brother : brothers) {
+                if (!brother.valid) {
+                    continue;
+                }
+                int value = -brother.getRawResult();
+                if (value > bestValue) {
+                    bestValue = value;
+                    bestMove = brother.move;
+                }
+            }
+            return finish(bestValue);
+        }
+
+        // 兄弟の結果を共有α値に反映する (valueはこの局面から見た値)
+        private void brotherFinished(int value) {
+            sharedAlpha.accumulateAndGet(value, Math::max);
+            if (value >= beta) {
+                cutoff = true;
+            }
+        }
+
+        private int finish(int value) {
+            valid = !timeOver && !isAborted();
+            if (valid && younger) {
+                parent.brotherFinished(-value);
+            }
+            return value;
+        }
+
+        // 祖先のどこかでβ刈りが起きたか (逐次探索中の部分木からも調べる)
+        private boolean isAborted() {
+            for (SplitTask t = parent; t != null; t = t.parent) {
+                if (t.cutoff) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
     /*
     αβ探索を行い、木を探索して局面の評価値を返す
     Args:
@@ -137,56 +379,64 @@ public class A5_ver2 extends AI {
         alpha        : α値（これより悪い手は探索しない）
         beta         : β値（これより良い手は探索しない）
         passedBefore : 直前にパスがあったか
+        task         : 並列探索でこの部分木を任されたタスク (逐次探索ではnull)
+                       祖先でβ刈りが起きたら結果は使われないので，すぐに打ち切る
     Returns:
         bestValue : この局面の評価値
      */
-    private int alphaBetaSearch(Board board, int depth, int alpha, int beta,
-            boolean passedBefore) {
+    private int alphaBetaSearch(WeightedBitBoard board, int depth, int alpha, int beta,
+            boolean passedBefore, SplitTask task) {
         // 時間切れチェック
-        if (timeLimitedFlag && isTimeRunningOut()) {
+        if (isTimeRunningOut()) {
             timeOver = true;
             return evaluatePosition(board);
         }
 
+        // 祖先でβ刈りが起きていれば，この値は使われない
+        if (task != null && task.isAborted()) {
+            return evaluatePosition(board);
+        }
+
         // 深さ0に到達：葉ノードなので評価
         if (depth == 0) {
             return evaluatePosition(board);
         }
 
         // 合法手を取得
-        ArrayList<Location> moves = board.enumerateLegalLocations();
+        long legalMoves = board.legalMoves();
 
         // 打つ手がない場合
-        if (moves.isEmpty()) {
+        if (legalMoves == 0) {
             // 両者ともパスなら終局
             if (passedBefore) {
                 return evaluateEndGame(board);
             }
             // パスして相手のターンへ
             board.pass();
-            int value = -alphaBetaSearch(board, depth - 1, -beta, -alpha, true);
+            int value = -alphaBetaSearch(board, depth - 1, -beta, -alpha, true, task);
             board.undo();
             return value;
         }
 
-        // 手を並び替えて効率的に探索
-        sortMovesByPriority(board, moves);
+        // 手を並び替えて効率的に探索 (並びは残り深さごとの配列に書く)
+        int[] keys = moveStacks.get()[depth];
+        int count = sortMovesByPriority(board, legalMoves, keys);
 
         // 最善値を探す
         int bestValue = -INF;
 
-        for (Location move : moves) {
+        for (int i = 0; i < count; i++) {
             // 手を実行
-            board.put(move);
+            board.put(keys[i] & SQUARE_MASK);
 
             // 再帰的に探索（相手の視点なので符号反転）
-            int value = -alphaBetaSearch(board, depth - 1, -beta, -alpha, false);
+            int value = -alphaBetaSearch(board, depth - 1, -beta, -alpha, false, task);
 
             // 手を戻す
             board.undo();
 
-            // 時間切れで中断
-            if (timeOver) {
+            // 時間切れか祖先のβ刈りで中断
+            if (timeOver || task != null && task.isAborted()) {
                 return bestValue == -INF ? evaluatePosition(board) : bestValue;
             }
 
@@ -217,15 +467,14 @@ public class A5_ver2 extends AI {
     Returns:
         int : 評価値（大きいほど有利）
      */
-    private int evaluatePosition(Board board) {
+    private int evaluatePosition(WeightedBitBoard board) {
         int myColor = color;
         int opponentColor = Board.flip(color);
         int totalStones = board.getCount(0) + board.getCount(1);
 
         //1. 位置評価 
         // 各マスの戦略的価値の合計
-        int positional = calculatePositionalScore(board, myColor)
-                       - calculatePositionalScore(board, opponentColor);
+        int positional = calculatePositionalScore(board, myColor);
 
         //2. 機動力（打てる手の数）
         // 序盤・中盤は多く、終盤は少ない方が有利な場合もある
@@ -262,7 +511,7 @@ public class A5_ver2 extends AI {
       Returns:
         int : 評価値(石差 × 10000)
      */
-    private int evaluateEndGame(Board board) {
+    private int evaluateEndGame(BitBoard board) {
         int myStones = board.getCount(color);
         int opponentStones = board.getCount(Board.flip(color));
         int diff = myStones - opponentStones;
@@ -272,69 +521,54 @@ public class A5_ver2 extends AI {
 
     /*
     位置評価の計算
-    POSITION_WEIGHTSテーブルに基づいて石の配置を評価
+    POSITION_WEIGHTSに基づく自分と相手の重みの差
+    盤面が着手のたびに差分更新しているので，64マスを走査しない
      */
-    private int calculatePositionalScore(Board board, int targetColor) {
-        int score = 0;
-        for (int y = 0; y < 8; y++) {
-            for (int x = 0; x < 8; x++) {
-                if (board.get(x, y) == targetColor) {
-                    score += POSITION_WEIGHTS[y][x];
-                }
-            }
-        }
-        return score;
+    private int calculatePositionalScore(WeightedBitBoard board, int targetColor) {
+        return board.getWeightScore(targetColor);
     }
 
     /*
     機動力の計算
     その色が打てる合法手の数
      */
-    private int calculateMobility(Board board, int targetColor) {
-        if (board.getCurrentColor() == targetColor) {
-            // 現在の手番ならそのまま数える
-            return board.enumerateLegalLocations().size();
-        } else {
-            // 相手の手番ならパスして数える
-            board.pass();
-            int count = board.enumerateLegalLocations().size();
-            board.undo();
-            return count;
-        }
+    private int calculateMobility(BitBoard board, int targetColor) {
+        // 手番に関係なくビット演算で数える (パスして戻す必要はない)
+        return board.mobility(targetColor);
     }
 
     /*
     手を優先度順に並び替える
     良い手を先に探索することでαβ枝刈りが効率的になる
+    優先度とマス番号を1つのint (優先度 << SQUARE_BITS | マス番号) に詰めて
+    挿入ソートするので，オブジェクトも配列も確保しない
+    Args:
+        board : 盤面
+        moves : 合法手のビットマスク
+        keys  : 並べた結果を書き込む配列 (マス番号は keys[i] & SQUARE_MASK)
+    Returns:
+        count : 手の数
      */
-    private void sortMovesByPriority(Board board, ArrayList<Location> moves) {
-        // 選択ソートで並び替え（シンプルだが十分高速）
-        for (int i = 0; i < moves.size() - 1; i++) {
-            int bestIndex = i;
-            int bestScore = evaluateMove(board, moves.get(i));
-
-            for (int j = i + 1; j < moves.size(); j++) {
-                int score = evaluateMove(board, moves.get(j));
-                if (score > bestScore) {
-                    bestScore = score;
-                    bestIndex = j;
-                }
-            }
-
-            // 交換
-            if (bestIndex != i) {
-                Location temp = moves.get(i);
-                moves.set(i, moves.get(bestIndex));
-                moves.set(bestIndex, temp);
+    private int sortMovesByPriority(BitBoard board, long moves, int[] keys) {
+        int count = 0;
+        for (long m = moves; m != 0; m &= m - 1) {
+            int square = Long.numberOfTrailingZeros(m);
+            int key = (evaluateMove(board, BitBoard.location(square)) << SQUARE_BITS) | square;
+            int i = count++;
+            while (i > 0 && keys[i - 1] < key) {
+                keys[i] = keys[i - 1];
+                i--;
             }
+            keys[i] = key;
         }
+        return count;
     }
 
     /*
     個別の手の価値を簡易評価
     角 > 辺 > 内側、ただしX位置（角の隣）は避ける
      */
-    private int evaluateMove(Board board, Location move) {
+    private int evaluateMove(BitBoard board, Location move) {
         int score = POSITION_WEIGHTS[move.y()][move.x()];
 
         // 角は最優先
@@ -356,7 +590,7 @@ public class A5_ver2 extends AI {
     /*
     フォールバック用：評価関数だけで最善手を選ぶ
      */
-    private Location selectBestMoveByEvaluation(ArrayList<Location> moves, Board board) {
+    private Location selectBestMoveByEvaluation(ArrayList<Location> moves, BitBoard board) {
         Location best = moves.get(0);
         int bestScore = Integer.MIN_VALUE;
 
@@ -374,7 +608,7 @@ public class A5_ver2 extends AI {
     /*
     角にある石の数を数える
      */
-    private int countCorners(Board board, int targetColor) {
+    private int countCorners(BitBoard board, int targetColor) {
         int count = 0;
         if (board.get(0, 0) == targetColor) count++;
         if (board.get(7, 0) == targetColor) count++;
@@ -386,7 +620,7 @@ public class A5_ver2 extends AI {
     /*
     辺にある石の数を数える
      */
-    private int countEdges(Board board, int targetColor) {
+    private int countEdges(BitBoard board, int targetColor) {
         int count = 0;
         for (int i = 0; i < 8; i++) {
             if (board.get(i, 0) == targetColor) count++;
@@ -421,7 +655,7 @@ public class A5_ver2 extends AI {
     /*
     その位置に対応する角が空いているか
      */
-    private boolean isCornerEmpty(Board board, Location loc) {
+    private boolean isCornerEmpty(BitBoard board, Location loc) {
         int cornerX = (loc.x() < 4) ? 0 : 7;
         int cornerY = (loc.y() < 4) ? 0 : 7;
         return board.get(cornerX, cornerY) == -1;
@@ -430,7 +664,7 @@ public class A5_ver2 extends AI {
     /*
     残りの空きマス数に応じて探索深さを決定
      */
-    private int calculateSearchDepth(Board board) {
+    private int calculateSearchDepth(BitBoard board) {
         int totalStones = board.getCount(0) + board.getCount(1);
         int emptySquares = 64 - totalStones;
 
@@ -450,10 +684,17 @@ public class A5_ver2 extends AI {
     }
 
     /*
-    時間が迫っているかチェック
+    時間が迫っているか，外から打ち切りを要求されたかチェック
      */
     private boolean isTimeRunningOut() {
-        return getTime() - startTime > TIME_LIMIT * TIME_MARGIN;
+        return isCancelled() || timeLimitedFlag && timeManager.isHardLimitReached();
+    }
+
+    /*
+    終盤読みの時間を使い切ったか，外から打ち切りを要求されたかチェック
+     */
+    private boolean isSolveTimeRunningOut() {
+        return isCancelled() || timeLimitedFlag && timeManager.elapsed() > solveLimit;
     }
 
 }
@@ -0,0 +1,135 @@
+package j2.review02;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * PatternBenchmark - 評価関数の1秒あたりの評価回数を測るツール
+ *
+ * ランダムな対局から局面を集め，各局面の合法手をすべて打って評価して戻す
+ * (探索の葉と同じ使い方) のを繰り返し，次の3つを比べる．
+ *   1. パターン評価 (PatternBitBoardの差分更新した番号で表引き)
+ *   2. パターン評価 (評価のたびに盤面全体から番号を計算し直す)
+ *   3. Egaroucidの評価関数全体 (パターン・着手可能数・確定石・偶奇)
+ * いずれも着手と取り消しの時間を含む．
+ * 使い方: java j2.review02.PatternBenchmark [局面数] [繰り返し回数]
+ */
+public class PatternBenchmark {
+
+    private static final int DEFAULT_POSITIONS = 2000;
+    private static final int DEFAULT_ROUNDS = 20;
+
+    private final ArrayList<PatternBitBoard> positions = new ArrayList<>();
+    private final PatternEvaluator evaluator;
+    private final Egaroucid engine;
+    private final int[] indices = new int[PatternEvaluator.FEATURES];
+
+    public PatternBenchmark(int count, long seed) {
+        engine = new Egaroucid(0, false, 1);
+        evaluator = engine.getPatternEvaluator();
+        Random random = new Random(seed);
+        while (positions.size() < count) {
+            PatternBitBoard board = new PatternBitBoard(new BitBoard(), evaluator);
+            int plies = 4 + random.nextInt(50);
+            for (int ply = 0; ply < plies; ply++) {
+                long moves = board.legalMoves();
+                if (moves == 0) {
+                    board.pass();
+                    moves = board.legalMoves();
+                    if (moves == 0) {
+                        break;
+                    }
+                }
+                for (int skip = random.nextInt(Long.bitCount(moves)); skip > 0; skip--) {
+                    moves &= moves - 1;
+                }
+                board.put(Long.numberOfTrailingZeros(moves));
+            }
+            if (board.legalMoves() != 0) {
+                positions.add(board);
+            }
+        }
+    }
+
+    // 差分更新した番号でパターン評価する．
+    private long incremental() {
+        long sum = 0;
+        for (PatternBitBoard board : positions) {
+            for (long m = board.legalMoves(); m != 0; m &= m - 1) {
+                board.put(Long.numberOfTrailingZeros(m));
+                sum += evaluator.evaluate(board);
+                board.undo();
+            }
+        }
+        return sum;
+    }
+
+    // 評価のたびに番号を計算し直してパターン評価する．
+    private long recomputed() {
+        long sum = 0;
+        for (PatternBitBoard position : positions) {
+            BitBoard board = new BitBoard(position);
+            for (long m = board.legalMoves(); m != 0; m &= m - 1) {
+                board.put(Long.numberOfTrailingZeros(m));
+                PatternEvaluator.computeIndices(board, indices);
+                int score = evaluator.evaluate(PatternEvaluator.phase(board.getCount(0) + board.getCount(1)), indices);
+                sum += board.getCurrentColor() == 0 ? score : -score;
+                board.undo();
+            }
+        }
+        return sum;
+    }
+
+    // Egaroucidの評価関数全体で評価する．
+    private long full() {
+        long sum = 0;
+        for (PatternBitBoard board : positions) {
+            for (long m = board.legalMoves(); m != 0; m &= m - 1) {
+                board.put(Long.numberOfTrailingZeros(m));
+                sum += engine.evaluate(board);
+                board.undo();
+            }
+        }
+        return sum;
+    }
+
+    private int evaluationsPerRound() {
+        int count = 0;
+        for (PatternBitBoard board : positions) {
+            count += Long.bitCount(board.legalMoves());
+        }
+        return count;
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_POSITIONS;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+        PatternBenchmark benchmark = new PatternBenchmark(count, 1);
+        int evaluations = benchmark.evaluationsPerRound();
+        System.out.printf("%d局面, 1回あたり%d評価, %d回\n", count, evaluations, rounds);
+
+        String[] names = {"パターン (差分更新)", "パターン (毎回計算)", "評価関数全体"};
+        for (int kind = 0; kind < names.length; kind++) {
+            long check = 0;
+            // 最初の数回はJITの準備として計測しない
+            for (int warmup = 0; warmup < 3; warmup++) {
+                check += benchmark.run(kind);
+            }
+            long start = System.nanoTime();
+            for (int round = 0; round < rounds; round++) {
+                check += benchmark.run(kind);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-16s %12.0f 評価/秒 (検査値 %d)\n", names[kind],
+                    (double) evaluations * rounds / seconds, check);
+        }
+    }
+
+    private long run(int kind) {
+        switch (kind) {
+            case 0: return incremental();
+            case 1: return recomputed();
+            default: return full();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package j2.review02;
+
+import java.util.Arrays;
+
+/**
+ * PatternBitBoard - PatternEvaluatorのパターン番号を差分更新するBitBoard
+ *
+ * パターンの番号は，i番目のマスが黒なら0，白なら1，空きなら2として 3^i の重みで
+ * 足したものなので，マスの状態が変わったときは，そのマスを含むパターンの番号に
+ * (変化した値) * 3^i を足せばよい．put/undoでは置いたマスと返った石のマスだけを
+ * こうして更新し，盤面全体を読み直さない．
+ *
+ * undo用に着手ごとの返った石を記録するので，探索中に配列の確保はしない
+ * (履歴が足りなくなったときだけ伸ばす)．
+ *
+ * 評価関数を指定して生成した場合は，その評価関数が使うパターンの番号だけを更新する
+ * (使わないパターンの番号は生成時のままなので，他の評価関数では評価できない)．
+ */
+public class PatternBitBoard extends BitBoard {
+
+    private static final int INITIAL_HISTORY = 128;
+    private static final int PASS = -1;
+
+    final int[] indices = new int[PatternEvaluator.FEATURES]; // パターンごとの番号
+    // マスごとに，更新するパターンとそのマスの桁の重み
+    private final int[][] squareFeatures;
+    private final int[][] squarePowers;
+
+    // 着手の記録 (undoで逆向きに更新する)
+    private int[] historySquare;
+    private long[] historyFlipped;
+    private int historySize;
+
+    // 初期局面を生成する．
+    public PatternBitBoard() {
+        super();
+        squareFeatures = PatternEvaluator.SQUARE_FEATURES;
+        squarePowers = PatternEvaluator.SQUARE_POWERS;
+        initialize();
+    }
+
+    // Boardの局面をコピーして生成する．履歴は引き継がない．
+    public PatternBitBoard(Board board) {
+        super(board);
+        squareFeatures = PatternEvaluator.SQUARE_FEATURES;
+        squarePowers = PatternEvaluator.SQUARE_POWERS;
+        initialize();
+    }
+
+    // Boardの局面をコピーし，evaluatorが使うパターンの番号だけを更新するものを生成する．
+    public PatternBitBoard(Board board, PatternEvaluator evaluator) {
+        super(board);
+        squareFeatures = evaluator.squareFeatures;
+        squarePowers = evaluator.squarePowers;
+        initialize();
+    }
+
+    // BitBoardの局面をコピーして生成する．これより前の着手はundoできない．
+    public PatternBitBoard(BitBoard board) {
+        super(board);
+        squareFeatures = PatternEvaluator.SQUARE_FEATURES;
+        squarePowers = PatternEvaluator.SQUARE_POWERS;
+        initialize();
+    }
+
+    // BitBoardの局面をコピーし，evaluatorが使うパターンの番号だけを更新するものを生成する．
+    public PatternBitBoard(BitBoard board, PatternEvaluator evaluator) {
+        super(board);
+        squareFeatures = evaluator.squareFeatures;
+        squarePowers = evaluator.squarePowers;
+        initialize();
+    }
+
+    // PatternBitBoardを履歴ごとコピーして生成する (更新するパターンも引き継ぐ)．
+    public PatternBitBoard(PatternBitBoard other) {
+        super(other);
+        squareFeatures = other.squareFeatures;
+        squarePowers = other.squarePowers;
+        System.arraycopy(other.indices, 0, indices, 0, indices.length);
+        this.historySquare = other.historySquare.clone();
+        this.historyFlipped = other.historyFlipped.clone();
+        this.historySize = other.historySize;
+    }
+
+    private void initialize() {
+        historySquare = new int[INITIAL_HISTORY];
+        historyFlipped = new long[INITIAL_HISTORY];
+        PatternEvaluator.computeIndices(this, indices);
+    }
+
+    // パターンfeatureの番号を返す．
+    public int getIndex(int feature) {
+        return indices[feature];
+    }
+
+    // マス番号squareに手番側の石を置き，手番を交代する．
+    @Override
+    public void put(int square) {
+        int mover = getCurrentColor();
+        long before = getPlayer();
+        super.put(square);
+
+        // 着手後は相手側が着手した色になるので，増えた石から置いたマスを除けば返った石
+        long flipped = getOpponent() & ~before & ~(1L << square);
+        pushHistory(square, flipped);
+        // 置いたマスは空き(2)から着手した色へ，返った石は相手の色から着手した色へ変わる
+        update(square, mover - 2);
+        int change = mover == 0 ? -1 : 1;
+        for (long f = flipped; f != 0; f &= f - 1) {
+            update(Long.numberOfTrailingZeros(f), change);
+        }
+    }
+
+    // パスして手番を交代する．
+    @Override
+    public void pass() {
+        super.pass();
+        pushHistory(PASS, 0);
+    }
+
+    // 直前のput/passを取り消す．
+    @Override
+    public void undo() {
+        super.undo();
+        historySize--;
+        int square = historySquare[historySize];
+        if (square == PASS) {
+            return;
+        }
+        int mover = getCurrentColor();
+        update(square, 2 - mover);
+        int change = mover == 0 ? 1 : -1;
+        for (long f = historyFlipped[historySize]; f != 0; f &= f - 1) {
+            update(Long.numberOfTrailingZeros(f), change);
+        }
+    }
+
+    // マスsquareの状態がchangeだけ変わったときに，それを含むパターンの番号を更新する．
+    private void update(int square, int change) {
+        int[] features = squareFeatures[square];
+        int[] powers = squarePowers[square];
+        for (int k = 0; k < features.length; k++) {
+            indices[features[k]] += change * powers[k];
+        }
+    }
+
+    private void pushHistory(int square, long flipped) {
+        if (historySize == historySquare.length) {
+            historySquare = Arrays.copyOf(historySquare, historySize * 2);
+            historyFlipped = Arrays.copyOf(historyFlipped, historySize * 2);
+        }
+        historySquare[historySize] = square;
+        historyFlipped[historySize] = flipped;
+        historySize++;
+    }
+}
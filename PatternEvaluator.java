@@ -0,0 +1,467 @@
+package j2.review02;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * PatternEvaluator - 盤上のパターン(マスの並び)ごとの表引きによる評価関数
+ *
+ * 盤面を次の11種類・46個のパターンに分け，パターンの石の並び(3^マス数通り)ごとの
+ * 評価値を石数による段階ごとの表に持つ．評価値は表から引いた値の合計である．
+ *   HV2〜HV4     端から2〜4列目の縦横の線 (8マス，各4個)
+ *   D8〜D4       長さ8〜4の斜めの線 (D8は2個，他は各4個)
+ *   EDGE_2X      辺の8マスと2つのX打ちのマス (10マス，4個)
+ *   CORNER_3X3   隅の3x3 (9マス，4個)
+ *   CORNER_2X5   隅からの2x5 (10マス，8個)
+ * 同じ種類のパターンは盤面の回転・反転で重なるので，1つの表を共有する．
+ *
+ * パターンの番号は，パターンのi番目のマスが黒なら0，白なら1，空きなら2として
+ * 3^i の重みで足したもの．表の値は黒から見た評価値で，白番のときは符号を反転する．
+ * 番号はPatternBitBoardが着手のたびに変化したマスの分だけ差分更新するので，
+ * 評価は46回の表引きと足し算だけで済む．
+ *
+ * 表は段階ごと・種類ごとの配列で，setTable()で差し替える．
+ * 同じ配列を複数の段階で共有してもよい (既定では全段階が0の表を共有する)．
+ * 使う種類を指定して生成した評価関数は，その種類のパターンだけを表引きする．
+ * PatternBitBoardに評価関数を渡せば，使わないパターンの番号は差分更新もしない．
+ *
+ * PatternTrainerで学習した表はsave()で重みファイルに書き出し，load()で読み込む．
+ * ファイルは MAGIC，版(VERSION)，段階数，種類数，表の部分のCRC32 の見出しの後に，
+ * 段階・種類の順で表の値を並べたもの (いずれもリトルエンディアンのint)．
+ * load()はファイルを読み取り専用でメモリにマップし，評価ではマップした領域から
+ * 直接表を引くので，ヒープに表を複製しない (読み込んだ表はsetTable()で変更できない)．
+ * loadDefault()で読み込むのはJVM内で1回だけで，すべてのエンジンが同じ表を共有する．
+ */
+public class PatternEvaluator {
+
+    // パターンの種類
+    public static final int HV2 = 0;
+    public static final int HV3 = 1;
+    public static final int HV4 = 2;
+    public static final int D8 = 3;
+    public static final int D7 = 4;
+    public static final int D6 = 5;
+    public static final int D5 = 6;
+    public static final int D4 = 7;
+    public static final int EDGE_2X = 8;
+    public static final int CORNER_3X3 = 9;
+    public static final int CORNER_2X5 = 10;
+    public static final int SHAPES = 11;
+
+    public static final int PHASES = 10;       // 石数による段階の数
+    private static final int DISCS_PER_PHASE = 6;
+
+    public static final String DEFAULT_FILE = "patterns.bin"; // 起動時に読み込む重みファイル
+    private static final int MAGIC = 0x50415454; // "PATT"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 20;  // MAGIC，版，段階数，種類数，CRC32
+    private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    // DEFAULT_FILEを読み込んだ結果 (最初の1回だけ読み込み，以後は共有する)
+    private static PatternEvaluator defaultEvaluator;
+    private static boolean defaultLoaded;
+
+    // 種類ごとの基準のマス (x, y) の並び．i番目のマスが番号の 3^i の桁になる．
+    private static final int[][][] BASE_CELLS = {
+        line(0, 1, 1, 0, 8),                     // HV2
+        line(0, 2, 1, 0, 8),                     // HV3
+        line(0, 3, 1, 0, 8),                     // HV4
+        line(0, 0, 1, 1, 8),                     // D8
+        line(0, 1, 1, 1, 7),                     // D7
+        line(0, 2, 1, 1, 6),                     // D6
+        line(0, 3, 1, 1, 5),                     // D5
+        line(0, 4, 1, 1, 4),                     // D4
+        {{0, 0}, {1, 0}, {2, 0}, {3, 0}, {4, 0}, {5, 0}, {6, 0}, {7, 0}, {1, 1}, {6, 1}}, // EDGE_2X
+        {{0, 0}, {1, 0}, {2, 0}, {0, 1}, {1, 1}, {2, 1}, {0, 2}, {1, 2}, {2, 2}},         // CORNER_3X3
+        {{0, 0}, {1, 0}, {2, 0}, {3, 0}, {4, 0}, {0, 1}, {1, 1}, {2, 1}, {3, 1}, {4, 1}}, // CORNER_2X5
+    };
+
+    // 種類ごとに，基準の並びを盤上の各パターンに移す対称変換 (symmetry()の番号)
+    private static final int[][] SYMMETRIES = {
+        {0, 2, 4, 5},             // HV2: 上下の2列目，左右の2列目
+        {0, 2, 4, 5},             // HV3
+        {0, 2, 4, 5},             // HV4
+        {0, 1},                   // D8: 2本の対角線
+        {0, 4, 1, 5},             // D7: 対角線の両側，反対の対角線の両側
+        {0, 4, 1, 5},             // D6
+        {0, 4, 1, 5},             // D5
+        {0, 4, 1, 5},             // D4
+        {0, 2, 4, 5},             // EDGE_2X: 上下左右の辺
+        {0, 1, 2, 3},             // CORNER_3X3: 4隅
+        {0, 1, 2, 3, 4, 5, 6, 7}, // CORNER_2X5: 4隅の縦横
+    };
+
+    public static final int FEATURES;          // パターンの個数 (46)
+    static final int[] FEATURE_SHAPE;          // パターンごとの種類
+    static final int[][] FEATURE_SQUARES;      // パターンごとのマス番号の並び
+    static final int[] SHAPE_SIZE = new int[SHAPES]; // 種類ごとのマス数
+    static final int[] TABLE_SIZE = new int[SHAPES]; // 種類ごとの並びの数 (3^マス数)
+    // マスごとに，そのマスを含むパターンと，そのマスの桁の重み 3^i
+    static final int[][] SQUARE_FEATURES = new int[64][];
+    static final int[][] SQUARE_POWERS = new int[64][];
+    static {
+        int count = 0;
+        for (int[] symmetries : SYMMETRIES) {
+            count += symmetries.length;
+        }
+        FEATURES = count;
+        FEATURE_SHAPE = new int[count];
+        FEATURE_SQUARES = new int[count][];
+
+        int feature = 0;
+        for (int shape = 0; shape < SHAPES; shape++) {
+            int[][] cells = BASE_CELLS[shape];
+            SHAPE_SIZE[shape] = cells.length;
+            int size = 1;
+            for (int i = 0; i < cells.length; i++) {
+                size *= 3;
+            }
+            TABLE_SIZE[shape] = size;
+            for (int symmetry : SYMMETRIES[shape]) {
+                int[] squares = new int[cells.length];
+                for (int i = 0; i < cells.length; i++) {
+                    squares[i] = symmetry(symmetry, cells[i][0], cells[i][1]);
+                }
+                FEATURE_SHAPE[feature] = shape;
+                FEATURE_SQUARES[feature] = squares;
+                feature++;
+            }
+        }
+
+        int[] perSquare = new int[64];
+        for (int[] squares : FEATURE_SQUARES) {
+            for (int square : squares) {
+                perSquare[square]++;
+            }
+        }
+        for (int square = 0; square < 64; square++) {
+            SQUARE_FEATURES[square] = new int[perSquare[square]];
+            SQUARE_POWERS[square] = new int[perSquare[square]];
+            perSquare[square] = 0;
+        }
+        for (int f = 0; f < count; f++) {
+            int power = 1;
+            for (int square : FEATURE_SQUARES[f]) {
+                int k = perSquare[square]++;
+                SQUARE_FEATURES[square][k] = f;
+                SQUARE_POWERS[square][k] = power;
+                power *= 3;
+            }
+        }
+    }
+
+    private static final int[] ALL_SHAPES = {HV2, HV3, HV4, D8, D7, D6, D5, D4, EDGE_2X, CORNER_3X3, CORNER_2X5};
+
+    // 評価に使うパターンの番号の並び
+    private final int[] activeFeatures;
+    // マスごとに，そのマスを含む評価に使うパターンと，そのマスの桁の重み (PatternBitBoardで使う)
+    final int[][] squareFeatures;
+    final int[][] squarePowers;
+
+    // 段階・パターンごとの表 (パターンの種類の表を参照する)
+    private final int[][][] featureTables = new int[PHASES][FEATURES][];
+    private final int[][][] tables = new int[PHASES][SHAPES][];
+
+    // load()で読み込んだ場合は，表はマップした領域mappedにあり，上の配列は使わない
+    // 段階・種類ごと，段階・パターンごとの表の先頭の位置 (intの個数)
+    private final IntBuffer mapped;
+    private final int[][] mappedTableOffsets;
+    private final int[][] mappedFeatureOffsets;
+
+    // すべての種類を使い，すべての表が0の評価関数を生成する．
+    public PatternEvaluator() {
+        this(ALL_SHAPES);
+    }
+
+    // shapesの種類のパターンだけを使い，すべての表が0の評価関数を生成する．
+    // 他の種類のパターンは表引きせず，その表は設定できない．
+    public PatternEvaluator(int... shapes) {
+        this.mapped = null;
+        this.mappedTableOffsets = null;
+        this.mappedFeatureOffsets = null;
+        boolean[] active = new boolean[SHAPES];
+        for (int shape : shapes) {
+            active[shape] = true;
+        }
+        int count = 0;
+        for (int f = 0; f < FEATURES; f++) {
+            if (active[FEATURE_SHAPE[f]]) {
+                count++;
+            }
+        }
+        this.activeFeatures = new int[count];
+        count = 0;
+        for (int f = 0; f < FEATURES; f++) {
+            if (active[FEATURE_SHAPE[f]]) {
+                activeFeatures[count++] = f;
+            }
+        }
+        this.squareFeatures = new int[64][];
+        this.squarePowers = new int[64][];
+        for (int square = 0; square < 64; square++) {
+            int n = 0;
+            for (int f : SQUARE_FEATURES[square]) {
+                if (active[FEATURE_SHAPE[f]]) {
+                    n++;
+                }
+            }
+            squareFeatures[square] = new int[n];
+            squarePowers[square] = new int[n];
+            n = 0;
+            for (int k = 0; k < SQUARE_FEATURES[square].length; k++) {
+                if (active[FEATURE_SHAPE[SQUARE_FEATURES[square][k]]]) {
+                    squareFeatures[square][n] = SQUARE_FEATURES[square][k];
+                    squarePowers[square][n] = SQUARE_POWERS[square][k];
+                    n++;
+                }
+            }
+        }
+        for (int shape = 0; shape < SHAPES; shape++) {
+            int[] zero = new int[TABLE_SIZE[shape]];
+            for (int phase = 0; phase < PHASES; phase++) {
+                tables[phase][shape] = zero;
+                if (active[shape]) {
+                    setTable(phase, shape, zero);
+                }
+            }
+        }
+    }
+
+    // 段階・種類の順に表を並べたマップ済みの領域bodyを表として生成する (load()で使う)．
+    // 重みファイルの評価関数はすべての種類を使う．
+    private PatternEvaluator(ByteBuffer body) {
+        this.activeFeatures = new int[FEATURES];
+        for (int f = 0; f < FEATURES; f++) {
+            activeFeatures[f] = f;
+        }
+        this.squareFeatures = SQUARE_FEATURES;
+        this.squarePowers = SQUARE_POWERS;
+        this.mapped = body.asIntBuffer();
+        this.mappedTableOffsets = new int[PHASES][SHAPES];
+        this.mappedFeatureOffsets = new int[PHASES][FEATURES];
+        int offset = 0;
+        for (int phase = 0; phase < PHASES; phase++) {
+            for (int shape = 0; shape < SHAPES; shape++) {
+                mappedTableOffsets[phase][shape] = offset;
+                offset += TABLE_SIZE[shape];
+            }
+            for (int f = 0; f < FEATURES; f++) {
+                mappedFeatureOffsets[phase][f] = mappedTableOffsets[phase][FEATURE_SHAPE[f]];
+            }
+        }
+    }
+
+    // 盤上の石数から段階を求める．
+    public static int phase(int discs) {
+        return Math.min(PHASES - 1, Math.max(0, (discs - 4) / DISCS_PER_PHASE));
+    }
+
+    // 段階phase，種類shapeの表を設定する．表の長さは 3^(種類のマス数)．
+    // 重みファイルから読み込んだ評価関数の表と，使わない種類の表は変更できない．
+    public void setTable(int phase, int shape, int[] table) {
+        if (mapped != null) {
+            throw new UnsupportedOperationException("重みファイルから読み込んだ表は変更できません");
+        }
+        if (table.length != TABLE_SIZE[shape]) {
+            throw new IllegalArgumentException("表の大きさが違います: " + table.length);
+        }
+        boolean used = false;
+        for (int f : activeFeatures) {
+            if (FEATURE_SHAPE[f] == shape) {
+                featureTables[phase][f] = table;
+                used = true;
+            }
+        }
+        if (!used) {
+            throw new IllegalArgumentException("この評価関数では使わない種類です: " + shape);
+        }
+        tables[phase][shape] = table;
+    }
+
+    // 段階phase，種類shapeの表を読み取り専用で返す．
+    public IntBuffer getTable(int phase, int shape) {
+        if (mapped != null) {
+            return mapped.slice(mappedTableOffsets[phase][shape], TABLE_SIZE[shape]).asReadOnlyBuffer();
+        }
+        return IntBuffer.wrap(tables[phase][shape]).asReadOnlyBuffer();
+    }
+
+    // 手番側から見たパターンの評価値を返す．
+    public int evaluate(PatternBitBoard board) {
+        int score = evaluate(phase(board.getCount(0) + board.getCount(1)), board.indices);
+        return board.getCurrentColor() == 0 ? score : -score;
+    }
+
+    // 段階phaseで，パターン番号がindicesの局面を黒から見た評価値を返す．
+    public int evaluate(int phase, int[] indices) {
+        int score = 0;
+        if (mapped != null) {
+            int[] offsets = mappedFeatureOffsets[phase];
+            for (int f = 0; f < FEATURES; f++) {
+                score += mapped.get(offsets[f] + indices[f]);
+            }
+            return score;
+        }
+        int[][] phaseTables = featureTables[phase];
+        for (int f : activeFeatures) {
+            score += phaseTables[f][indices[f]];
+        }
+        return score;
+    }
+
+    // 盤面全体から各パターンの番号を計算してindicesに書く．
+    static void computeIndices(BitBoard board, int[] indices) {
+        long black = board.getCurrentColor() == 0 ? board.getPlayer() : board.getOpponent();
+        long white = board.getCurrentColor() == 0 ? board.getOpponent() : board.getPlayer();
+        computeIndices(black, white, indices);
+    }
+
+    // 黒石black，白石whiteの盤面から各パターンの番号を計算してindicesに書く．
+    public static void computeIndices(long black, long white, int[] indices) {
+        for (int f = 0; f < FEATURES; f++) {
+            int[] squares = FEATURE_SQUARES[f];
+            int index = 0;
+            for (int i = squares.length - 1; i >= 0; i--) {
+                long bit = 1L << squares[i];
+                index = index * 3 + ((black & bit) != 0 ? 0 : (white & bit) != 0 ? 1 : 2);
+            }
+            indices[f] = index;
+        }
+    }
+
+    // 重みファイルを読み取り専用でメモリにマップして読み込む (表はコピーしない)．
+    // 見出し(MAGIC，版，段階数，種類数)・大きさ・CRC32が合わなければIOExceptionを投げる．
+    public static PatternEvaluator load(Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // マップした領域はチャネルを閉じても有効
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(BYTE_ORDER);
+        }
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException(path + ": 重みファイルではありません");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException(path + ": 重みファイルの版が違います (" + version + ")");
+        }
+        int phases = buffer.getInt(8);
+        int shapes = buffer.getInt(12);
+        if (phases != PHASES || shapes != SHAPES) {
+            throw new IOException(path + ": 段階数か種類数が違います (" + phases + ", " + shapes + ")");
+        }
+        if (buffer.capacity() != HEADER_BYTES + bodyBytes()) {
+            throw new IOException(path + ": 重みファイルの大きさが違います (" + buffer.capacity() + ")");
+        }
+        ByteBuffer body = buffer.slice(HEADER_BYTES, bodyBytes()).order(BYTE_ORDER);
+        if (checksum(body) != buffer.getInt(16)) {
+            throw new IOException(path + ": 重みファイルが壊れています (CRC32が違います)");
+        }
+        return new PatternEvaluator(body);
+    }
+
+    // DEFAULT_FILEがあれば読み込み，なければnullを返す．読めない場合は理由を表示してnullを返す．
+    // 読み込むのは最初の呼び出しの1回だけで，以後は同じインスタンス(またはnull)を返す．
+    public static synchronized PatternEvaluator loadDefault() {
+        if (!defaultLoaded) {
+            defaultEvaluator = readDefault();
+            defaultLoaded = true;
+        }
+        return defaultEvaluator;
+    }
+
+    private static PatternEvaluator readDefault() {
+        try {
+            return load(Paths.get(DEFAULT_FILE));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("パターンの重みファイルを読み込めないため使いません: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // 重みファイルに書き出す．
+    // マップして使用中のファイルを上書きしないよう，別のファイルに書いてから置き換える．
+    public void save(Path path) throws IOException {
+        ByteBuffer body = ByteBuffer.allocate(bodyBytes()).order(BYTE_ORDER);
+        for (int phase = 0; phase < PHASES; phase++) {
+            for (int shape = 0; shape < SHAPES; shape++) {
+                IntBuffer table = getTable(phase, shape);
+                while (table.hasRemaining()) {
+                    body.putInt(table.get());
+                }
+            }
+        }
+        body.flip();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(BYTE_ORDER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(PHASES).putInt(SHAPES).putInt(checksum(body));
+        header.flip();
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] buffers = {header, body};
+            while (body.hasRemaining()) {
+                channel.write(buffers);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // 重みファイルの表の部分のバイト数
+    private static int bodyBytes() {
+        int ints = 0;
+        for (int shape = 0; shape < SHAPES; shape++) {
+            ints += TABLE_SIZE[shape];
+        }
+        return ints * PHASES * Integer.BYTES;
+    }
+
+    private static int checksum(ByteBuffer body) {
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        return (int) crc.getValue();
+    }
+
+    // 番号indexのi番目のマスの状態 (黒0，白1，空き2) を返す．
+    public static int cell(int index, int i) {
+        for (; i > 0; i--) {
+            index /= 3;
+        }
+        return index % 3;
+    }
+
+    // (x, y)から(dx, dy)方向に並ぶlength個のマス
+    private static int[][] line(int x, int y, int dx, int dy, int length) {
+        int[][] cells = new int[length][];
+        for (int i = 0; i < length; i++) {
+            cells[i] = new int[] {x + dx * i, y + dy * i};
+        }
+        return cells;
+    }
+
+    // マス(x, y)を盤面の対称変換symmetry(0〜7)で移した先のマス番号
+    private static int symmetry(int symmetry, int x, int y) {
+        switch (symmetry) {
+            case 0: return y * 8 + x;             // そのまま
+            case 1: return y * 8 + (7 - x);       // 左右反転
+            case 2: return (7 - y) * 8 + x;       // 上下反転
+            case 3: return (7 - y) * 8 + (7 - x); // 180度回転
+            case 4: return x * 8 + y;             // 対角線で反転
+            case 5: return x * 8 + (7 - y);       // 90度回転
+            case 6: return (7 - x) * 8 + y;       // -90度回転
+            case 7: return (7 - x) * 8 + (7 - y); // 反対の対角線で反転
+            default: throw new IllegalArgumentException("symmetry " + symmetry);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package j2.review02;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PatternTrainer - PatternEvaluatorの表を自己対戦の局面から学習するツール
+ *
+ * 1. 局面の生成: 序盤の数手をランダムに打った後，Egaroucidの深い探索で自己対戦し，
+ *    空きマスがsolveEmpties以下になったらEndgameSolverで終局まで完全に読む．
+ *    途中の局面には，その後を深い探索と完全読みで打ち切った最終石差(黒から見た値)を
+ *    正解として付け，標本ファイルへ順に書き出す (ヒープに溜めない)．
+ * 2. 学習: 標本ファイルをBLOCK_SIZE局面ずつ読み，表の値の和が正解に近づくよう
+ *    確率的勾配降下法で更新する (誤差の2乗を最小にする)．段階ごとに表は別なので，
+ *    段階をスレッドに分けて並列に更新し，同じ表を2つのスレッドが書くことはない．
+ * 3. 学習した表を SCORE_PER_DISC 倍して整数にし，重みファイルに書き出す．
+ *
+ * 出力をPatternEvaluator.DEFAULT_FILEにするとEgaroucidが起動時に読み込む．
+ * 重みファイルがある状態で生成し直せば，学習した評価関数で自己対戦することになる．
+ * 使い方: java j2.review02.PatternTrainer [対戦数] [探索の深さ] [完全読みの空きマス数] [エポック数] [出力ファイル]
+ * 対戦数を0にすると，前回書き出した標本ファイルをそのまま使って学習だけを行う．
+ */
+public class PatternTrainer {
+
+    private static final int DEFAULT_GAMES = 200;
+    private static final int DEFAULT_DEPTH = 6;
+    private static final int DEFAULT_SOLVE_EMPTIES = 14;
+    private static final int DEFAULT_EPOCHS = 10;
+    private static final String SAMPLE_FILE = "pattern_samples.bin";
+
+    private static final int MIN_RANDOM_MOVES = 4;  // 序盤にランダムに打つ手数の範囲
+    private static final int MAX_RANDOM_MOVES = 20;
+    private static final int TT_SIZE_MB = 8;
+    private static final int BLOCK_SIZE = 1 << 16;  // 一度に読む標本数
+    private static final float LEARNING_RATE = 0.002f;
+    private static final int SAMPLE_BYTES = 17;     // 黒石long，白石long，石差byte
+
+    private final int depth;
+    private final int solveEmpties;
+    private final DataOutputStream samples;
+    private final AtomicInteger sampleCount = new AtomicInteger();
+
+    public PatternTrainer(int depth, int solveEmpties, DataOutputStream samples) {
+        this.depth = depth;
+        this.solveEmpties = solveEmpties;
+        this.samples = samples;
+    }
+
+    // 1局の自己対戦を行い，途中の局面と最終石差を標本ファイルに書く．
+    public void playAndSample(long seed) throws IOException {
+        Random random = new Random(seed);
+        Egaroucid engine = new Egaroucid(0, false, TT_SIZE_MB);
+        EndgameSolver solver = new EndgameSolver(TT_SIZE_MB, null);
+        BitBoard board = new BitBoard();
+        ArrayList<long[]> positions = new ArrayList<>(); // 1局分 (黒石，白石)
+        int randomMoves = MIN_RANDOM_MOVES + random.nextInt(MAX_RANDOM_MOVES - MIN_RANDOM_MOVES + 1);
+
+        int result; // 黒から見た最終石差
+        for (int ply = 0; ; ply++) {
+            long moves = board.legalMoves();
+            if (moves == 0) {
+                board.pass();
+                if (board.legalMoves() == 0) {
+                    result = blackDiff(board, board.getCount(board.getCurrentColor())
+                            - board.getCount(BitBoard.flip(board.getCurrentColor())));
+                    break;
+                }
+                continue;
+            }
+            int empties = 64 - board.getCount(0) - board.getCount(1);
+            if (ply >= randomMoves) {
+                positions.add(position(board));
+            }
+            if (empties <= solveEmpties) {
+                result = blackDiff(board, solver.solve(board));
+                break;
+            }
+            int square;
+            if (ply < randomMoves) {
+                for (int skip = random.nextInt(Long.bitCount(moves)); skip > 0; skip--) {
+                    moves &= moves - 1;
+                }
+                square = Long.numberOfTrailingZeros(moves);
+            } else {
+                square = engine.searchBestMove(board, depth);
+            }
+            board.put(square);
+        }
+
+        synchronized (samples) {
+            for (long[] position : positions) {
+                samples.writeLong(position[0]);
+                samples.writeLong(position[1]);
+                samples.writeByte(result);
+            }
+        }
+        sampleCount.addAndGet(positions.size());
+    }
+
+    // 局面の (黒石，白石)
+    private static long[] position(BitBoard board) {
+        boolean blackToMove = board.getCurrentColor() == 0;
+        return new long[] {
+            blackToMove ? board.getPlayer() : board.getOpponent(),
+            blackToMove ? board.getOpponent() : board.getPlayer()
+        };
+    }
+
+    // 手番側から見た石差を黒から見た石差にする．
+    private static int blackDiff(BitBoard board, int diff) {
+        return board.getCurrentColor() == 0 ? diff : -diff;
+    }
+
+    /**
+     * 標本ファイルを読みながら表を学習する
+     *
+     * 表は石差(石1個 = 1.0)を単位とするfloatで持ち，書き出すときに整数にする．
+     * ブロックごとに標本を段階で振り分け，段階をスレッドに割り当てて更新する．
+     */
+    static class Learner {
+        private final float[][][] weights = new float[PatternEvaluator.PHASES][PatternEvaluator.SHAPES][];
+        private final int threads;
+        private final ExecutorService pool;
+
+        // 読み込んだブロック (使い回す)
+        private final long[] blacks = new long[BLOCK_SIZE];
+        private final long[] whites = new long[BLOCK_SIZE];
+        private final byte[] results = new byte[BLOCK_SIZE];
+        private final int[][] byPhase = new int[PatternEvaluator.PHASES][BLOCK_SIZE];
+        private final int[] phaseCounts = new int[PatternEvaluator.PHASES];
+
+        Learner(int threads) {
+            this.threads = threads;
+            this.pool = Executors.newFixedThreadPool(threads);
+            for (int phase = 0; phase < PatternEvaluator.PHASES; phase++) {
+                for (int shape = 0; shape < PatternEvaluator.SHAPES; shape++) {
+                    weights[phase][shape] = new float[PatternEvaluator.TABLE_SIZE[shape]];
+                }
+            }
+        }
+
+        // 標本ファイルを1回読み通して学習し，二乗平均誤差(石差)を返す．
+        double epoch(Path path, long seed) throws IOException, InterruptedException, ExecutionException {
+            Random random = new Random(seed);
+            double squaredError = 0;
+            long total = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                int n;
+                while ((n = readBlock(in)) > 0) {
+                    Arrays.fill(phaseCounts, 0);
+                    for (int i = 0; i < n; i++) {
+                        int phase = PatternEvaluator.phase(Long.bitCount(blacks[i] | whites[i]));
+                        byPhase[phase][phaseCounts[phase]++] = i;
+                    }
+                    for (int phase = 0; phase < PatternEvaluator.PHASES; phase++) {
+                        shuffle(byPhase[phase], phaseCounts[phase], random);
+                    }
+                    ArrayList<Future<Double>> futures = new ArrayList<>();
+                    for (int t = 0; t < threads; t++) {
+                        final int first = t;
+                        futures.add(pool.submit(() -> {
+                            double error = 0;
+                            for (int phase = first; phase < PatternEvaluator.PHASES; phase += threads) {
+                                error += train(phase);
+                            }
+                            return error;
+                        }));
+                    }
+                    for (Future<Double> future : futures) {
+                        squaredError += future.get();
+                    }
+                    total += n;
+                }
+            }
+            return total > 0 ? Math.sqrt(squaredError / total) : 0;
+        }
+
+        // 段階phaseに振り分けた標本で表を更新し，更新前の誤差の2乗の和を返す．
+        private double train(int phase) {
+            float[][] tables = weights[phase];
+            int[] indices = new int[PatternEvaluator.FEATURES];
+            double error = 0;
+            for (int k = 0; k < phaseCounts[phase]; k++) {
+                int i = byPhase[phase][k];
+                PatternEvaluator.computeIndices(blacks[i], whites[i], indices);
+                float predicted = 0;
+                for (int f = 0; f < PatternEvaluator.FEATURES; f++) {
+                    predicted += tables[PatternEvaluator.FEATURE_SHAPE[f]][indices[f]];
+                }
+                float diff = results[i] - predicted;
+                error += (double) diff * diff;
+                float step = LEARNING_RATE * diff;
+                for (int f = 0; f < PatternEvaluator.FEATURES; f++) {
+                    tables[PatternEvaluator.FEATURE_SHAPE[f]][indices[f]] += step;
+                }
+            }
+            return error;
+        }
+
+        private int readBlock(DataInputStream in) throws IOException {
+            int n = 0;
+            try {
+                while (n < BLOCK_SIZE) {
+                    blacks[n] = in.readLong();
+                    whites[n] = in.readLong();
+                    results[n] = in.readByte();
+                    n++;
+                }
+            } catch (EOFException e) {
+                // ファイルの終わり
+            }
+            return n;
+        }
+
+        private static void shuffle(int[] array, int n, Random random) {
+            for (int i = n - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = array[i];
+                array[i] = array[j];
+                array[j] = tmp;
+            }
+        }
+
+        // 学習した表を SCORE_PER_DISC 倍して整数にしたPatternEvaluatorを返す．
+        PatternEvaluator toEvaluator() {
+            PatternEvaluator evaluator = new PatternEvaluator();
+            for (int phase = 0; phase < PatternEvaluator.PHASES; phase++) {
+                for (int shape = 0; shape < PatternEvaluator.SHAPES; shape++) {
+                    float[] w = weights[phase][shape];
+                    int[] table = new int[w.length];
+                    for (int i = 0; i < w.length; i++) {
+                        table[i] = Math.round(w[i] * Egaroucid.SCORE_PER_DISC);
+                    }
+                    evaluator.setTable(phase, shape, table);
+                }
+            }
+            return evaluator;
+        }
+
+        void shutdown() {
+            pool.shutdown();
+        }
+    }
+
+    // 自己対戦を並列に行い，標本ファイルに書き出す．書いた標本数を返す．
+    private static int generate(Path path, int games, int depth, int solveEmpties, int parallelism)
+            throws IOException, InterruptedException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            PatternTrainer trainer = new PatternTrainer(depth, solveEmpties, out);
+            ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+            ArrayList<Future<?>> futures = new ArrayList<>();
+            AtomicInteger finished = new AtomicInteger();
+            for (int i = 0; i < games; i++) {
+                final long seed = i;
+                futures.add(pool.submit(() -> {
+                    trainer.playAndSample(seed);
+                    System.out.printf("対戦 %d/%d 終了\n", finished.incrementAndGet(), games);
+                    return null;
+                }));
+            }
+            try {
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                throw new IOException("対戦中にエラーが発生しました", e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+            return trainer.sampleCount.get();
+        }
+    }
+
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_GAMES;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_DEPTH;
+        int solveEmpties = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SOLVE_EMPTIES;
+        int epochs = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_EPOCHS;
+        String output = args.length > 4 ? args[4] : PatternEvaluator.DEFAULT_FILE;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        Path sampleFile = Paths.get(SAMPLE_FILE);
+        long start = System.currentTimeMillis();
+
+        try {
+            if (games > 0) {
+                System.out.printf("局面の生成: %d局, 深さ %d, 空き%dマスから完全読み, 同時に%d局\n",
+                        games, depth, solveEmpties, parallelism);
+                int count = generate(sampleFile, games, depth, solveEmpties, parallelism);
+                System.out.printf("%d局面を%sに書き出しました\n", count, SAMPLE_FILE);
+            }
+
+            long count = Files.size(sampleFile) / SAMPLE_BYTES;
+            System.out.printf("学習: %d局面, %dエポック, %dスレッド\n", count, epochs, parallelism);
+            Learner learner = new Learner(Math.min(parallelism, PatternEvaluator.PHASES));
+            try {
+                for (int epoch = 1; epoch <= epochs; epoch++) {
+                    double rmse = learner.epoch(sampleFile, epoch);
+                    System.out.printf("エポック %d: 誤差 %.2f 石\n", epoch, rmse);
+                }
+            } finally {
+                learner.shutdown();
+            }
+            learner.toEvaluator().save(Paths.get(output));
+        } catch (IOException e) {
+            System.err.println("学習できません: " + e.getMessage());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            System.err.println("学習中にエラーが発生しました: " + e.getCause());
+            return;
+        }
+        System.out.printf("%sに書き出しました (%.1f秒)\n", output, (System.currentTimeMillis() - start) / 1000.0);
+    }
+}
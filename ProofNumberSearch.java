@@ -0,0 +1,318 @@
+package j2.review02;
+
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+/**
+ * ProofNumberSearch - 証明数探索(df-pn)による終盤の勝敗読み
+ *
+ * 「手番側(攻め方)が最終石差target以上を確保できるか」を証明数・反証数で読む．
+ * 各局面は手番側から見た (φ, δ) = (目標を達成する証明にかかる手間, 反証にかかる手間)
+ * を持ち，φ(n) = min δ(子)，δ(n) = Σ φ(子) で更新する．
+ * 一方の勝ち筋が細く限られている局面では，αβより少ない局面数で証明できることが多い．
+ *
+ * - 局面はBitBoardのput/pass/undoでたどり，結果は大きさを指定した節点表に置く
+ * - 節点表は2エントリ1組で，埋まっていれば探索量の少ない方を追い出す
+ * - 閾値には1+ε法を使い，最善の子と2番目の子の入れ替わりによる往復を減らす
+ * - 空きマスがLEAF_SOLVE_EMPTIES以下の局面はEndgameSolverの幅1の窓で直接読む
+ *
+ * EndgameSolverと同じくBooleanSupplierで打ち切り条件を与えられる．
+ */
+public class ProofNumberSearch {
+
+    private static final int INF = 100_000_000; // 証明数・反証数の無限大
+    private static final int DEFAULT_TABLE_SIZE_MB = 16;
+    private static final int ENTRY_BYTES = 20;          // ハッシュ8 + 証明数・反証数8 + 探索量4
+    private static final int LEAF_SOLVE_EMPTIES = 8;    // この空きマス数以下はαβで読む
+    private static final int CHECK_INTERVAL = 4096;     // 打ち切り条件を確認する間隔(ノード数)
+    private static final int MAX_PLY = 121;             // 根 + 着手60 + 間に挟まるパス60
+
+    // 節点表
+    private final long[] keys;
+    private final long[] numbers; // 上位32ビットがφ，下位32ビットがδ
+    private final int[] work;     // そのエントリを求めるのに使ったノード数 (0は空き)
+    private final int indexMask;
+
+    private final EndgameSolver leafSolver = new EndgameSolver(1, null);
+    private final BooleanSupplier stop;
+
+    // 深さごとの子局面バッファ (パスしても空きマス数は変わらないので深さで引く)
+    private final int[][] squareBuffer = new int[MAX_PLY][64];
+    private final long[][] childKeyBuffer = new long[MAX_PLY][64];
+
+    private int attacker;  // 証明したい側の色
+    private int target;    // 攻め方が確保したい石差
+    private long searchKey; // 攻め方と目標ごとに節点表のキーを変えるためのXOR
+
+    private long nodes;
+    private long nextCheck;
+    private boolean aborted;
+    private int bestSquare;
+    private long elapsedNanos;
+    private String lastReport = "";
+
+    // 打ち切り条件なしで生成する．
+    public ProofNumberSearch() {
+        this(DEFAULT_TABLE_SIZE_MB, null);
+    }
+
+    // 節点表の大きさ(MB)と打ち切り条件(nullなら打ち切らない)を指定して生成する．
+    public ProofNumberSearch(int tableSizeMB, BooleanSupplier stop) {
+        int entries = (int) Long.highestOneBit(Math.max(2L, (long) tableSizeMB * 1024 * 1024 / ENTRY_BYTES));
+        this.keys = new long[entries];
+        this.numbers = new long[entries];
+        this.work = new int[entries];
+        this.indexMask = entries - 1;
+        this.stop = stop;
+    }
+
+    // 局面boardの勝敗を読み，手番側から見てEndgameSolver.WIN，DRAW，LOSSのいずれかを返す．
+    // 勝ちの場合，getBestMove()は勝ちを証明した手を返す．
+    public int solveWinLossDraw(BitBoard board) {
+        long start = System.nanoTime();
+        nodes = 0;
+        nextCheck = CHECK_INTERVAL;
+        aborted = false;
+        int result;
+        if (proveRoot(board, 1)) {
+            result = EndgameSolver.WIN;
+        } else if (!aborted && proveRoot(board, 0)) {
+            result = EndgameSolver.DRAW;
+        } else {
+            result = EndgameSolver.LOSS;
+            bestSquare = -1;
+        }
+        elapsedNanos = System.nanoTime() - start;
+        lastReport = result == EndgameSolver.WIN ? "PN win" : result == EndgameSolver.DRAW ? "PN draw" : "PN loss";
+        return result;
+    }
+
+    // 手番側が最終石差target以上を確保できるかを読む．中断した場合はfalseを返す．
+    public boolean prove(BitBoard board, int target) {
+        long start = System.nanoTime();
+        nodes = 0;
+        nextCheck = CHECK_INTERVAL;
+        aborted = false;
+        boolean proved = proveRoot(board, target);
+        elapsedNanos = System.nanoTime() - start;
+        lastReport = String.format("PN >= %+d %s", target, proved ? "proved" : "disproved");
+        return proved;
+    }
+
+    // 直前の読みで勝ち(引き分け)を証明した手を返す．証明できなかった場合やパスの局面ではnull．
+    public Location getBestMove() {
+        return bestSquare >= 0 ? BitBoard.location(bestSquare) : null;
+    }
+
+    // 直前の読みが打ち切り条件で中断されたか．
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    // 直前の読みで展開したノード数を返す．
+    public long getNodes() {
+        return nodes;
+    }
+
+    // 直前の読みにかかった実時間(ナノ秒)を返す．
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    // 直前の読みの結果，ノード数，時間をまとめた文字列を返す．
+    public String getReport() {
+        return String.format("%s%s, %d nodes, %.2fs", lastReport, aborted ? " (aborted)" : "",
+                nodes, elapsedNanos / 1.0e9);
+    }
+
+    // 節点表を消去する．
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(numbers, 0);
+        Arrays.fill(work, 0);
+    }
+
+    private boolean proveRoot(BitBoard board, int target) {
+        this.attacker = board.getCurrentColor();
+        this.target = target;
+        this.searchKey = (target * 2L + attacker + 1) * 0x9e3779b97f4a7c15L;
+        bestSquare = -1;
+
+        mid(board, INF, INF, 0);
+        long entry = lookup(key(board));
+        boolean proved = !aborted && phi(entry) == 0;
+        if (proved) {
+            bestSquare = findBestSquare(board);
+        }
+        return proved;
+    }
+
+    // 証明済みのルートで，手番側の目標を達成する(反証済みの子につながる)手を探す．
+    private int findBestSquare(BitBoard board) {
+        for (long m = board.legalMoves(); m != 0; m &= m - 1) {
+            int square = Long.numberOfTrailingZeros(m);
+            board.put(square);
+            long entry = lookup(key(board));
+            board.undo();
+            if (delta(entry) == 0) {
+                return square;
+            }
+        }
+        return -1;
+    }
+
+    // 閾値(thPhi, thDelta)のどちらかに達するまで局面boardを展開する．plyは根からの深さ．
+    private void mid(BitBoard board, int thPhi, int thDelta, int ply) {
+        if (++nodes >= nextCheck) {
+            nextCheck = nodes + CHECK_INTERVAL;
+            aborted = stop != null && stop.getAsBoolean();
+        }
+        if (aborted) {
+            return;
+        }
+        long startNodes = nodes;
+        long key = key(board);
+
+        // 空きマスが少なければαβで読み切る
+        int empties = 64 - board.getCount(0) - board.getCount(1);
+        if (empties <= LEAF_SOLVE_EMPTIES) {
+            int need = need(board);
+            boolean win = leafSolver.solve(board, need - 1, need) >= need;
+            nodes += leafSolver.getNodes();
+            store(key, win ? 0 : INF, win ? INF : 0, 1);
+            return;
+        }
+
+        // 子局面を列挙する (パスは-1)
+        int[] squares = squareBuffer[ply];
+        int n = 0;
+        long moves = board.legalMoves();
+        if (moves != 0) {
+            for (long m = moves; m != 0; m &= m - 1) {
+                squares[n++] = Long.numberOfTrailingZeros(m);
+            }
+        } else {
+            board.pass();
+            boolean over = !board.isLegal();
+            board.undo();
+            if (over) {
+                boolean win = finalScore(board) >= need(board);
+                store(key, win ? 0 : INF, win ? INF : 0, 1);
+                return;
+            }
+            squares[n++] = -1;
+        }
+        long[] childKeys = childKeyBuffer[ply];
+        for (int i = 0; i < n; i++) {
+            play(board, squares[i]);
+            childKeys[i] = key(board);
+            board.undo();
+        }
+
+        while (true) {
+            // φ(n) = min δ(子)，δ(n) = Σ φ(子)
+            int phi = INF;
+            int delta = 0;
+            int secondDelta = INF;
+            int best = -1;
+            int bestChildPhi = 0;
+            for (int i = 0; i < n; i++) {
+                long entry = lookup(childKeys[i]);
+                int childPhi = phi(entry);
+                int childDelta = delta(entry);
+                if (childDelta < phi) {
+                    secondDelta = phi;
+                    phi = childDelta;
+                    best = i;
+                    bestChildPhi = childPhi;
+                } else if (childDelta < secondDelta) {
+                    secondDelta = childDelta;
+                }
+                delta = Math.min(INF, delta + childPhi);
+            }
+
+            if (phi >= thPhi || delta >= thDelta || aborted) {
+                store(key, phi, delta, (int) Math.min(Integer.MAX_VALUE, nodes - startNodes + 1));
+                return;
+            }
+
+            // 1+ε法: 2番目の子の1.25倍を超えるまで最善の子を掘り下げる
+            int childThPhi = thDelta - delta + bestChildPhi;
+            int childThDelta = Math.min(thPhi, secondDelta + secondDelta / 4 + 1);
+            play(board, squares[best]);
+            mid(board, childThPhi, childThDelta, ply + 1);
+            board.undo();
+        }
+    }
+
+    private static void play(BitBoard board, int square) {
+        if (square < 0) {
+            board.pass();
+        } else {
+            board.put(square);
+        }
+    }
+
+    // 手番側の目標 (この石差以上なら手番側の勝ち)
+    private int need(BitBoard board) {
+        return board.getCurrentColor() == attacker ? target : 1 - target;
+    }
+
+    // 終局した局面の手番側から見た石差 (空きマスは勝った側に加える)
+    private static int finalScore(BitBoard board) {
+        int me = board.getCount(board.getCurrentColor());
+        int opp = board.getCount(BitBoard.flip(board.getCurrentColor()));
+        int diff = me - opp;
+        int empties = 64 - me - opp;
+        return diff > 0 ? diff + empties : diff < 0 ? diff - empties : 0;
+    }
+
+    private long key(BitBoard board) {
+        return board.getHash() ^ searchKey;
+    }
+
+    // 節点表からエントリを探す．なければ未展開の局面として (1, 1) を返す．
+    private long lookup(long key) {
+        int i = (int) key & indexMask;
+        if (work[i] != 0 && keys[i] == key) {
+            return numbers[i];
+        }
+        i ^= 1;
+        if (work[i] != 0 && keys[i] == key) {
+            return numbers[i];
+        }
+        return pack(1, 1);
+    }
+
+    // 節点表に書き込む．証明・反証済みのエントリは追い出されにくいように探索量を最大にする．
+    private void store(long key, int phi, int delta, int nodesUsed) {
+        if (phi == 0 || delta == 0) {
+            nodesUsed = Integer.MAX_VALUE;
+        }
+        int i = (int) key & indexMask;
+        int j = i ^ 1;
+        int slot;
+        if (work[i] != 0 && keys[i] == key) {
+            slot = i;
+        } else if (work[j] != 0 && keys[j] == key) {
+            slot = j;
+        } else {
+            slot = work[i] <= work[j] ? i : j;
+        }
+        keys[slot] = key;
+        numbers[slot] = pack(phi, delta);
+        work[slot] = Math.max(1, nodesUsed);
+    }
+
+    private static long pack(int phi, int delta) {
+        return ((long) phi << 32) | (delta & 0xffffffffL);
+    }
+
+    private static int phi(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    private static int delta(long entry) {
+        return (int) entry;
+    }
+}
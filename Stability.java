@@ -0,0 +1,202 @@
+package j2.review02;
+
+/**
+ * Stability - 確定石(今後どう打たれても返らない石)の下界を求める
+ *
+ * 石が返るのは，その石を含む縦・横・2つの斜めのいずれかの線上で両側を
+ * 挟まれるときだけである．そこで各方向について
+ *   - その線が全部埋まっている (もう石を置けない)
+ *   - その方向の片側が盤外 (挟めない)
+ *   - その方向の隣が同じ色の確定石 (隣ごと返すことはできない)
+ * のいずれかを満たす石を確定石とし，確定石が増えなくなるまで繰り返す．
+ *
+ * 辺の石は辺に沿った方向でしか返らないので，辺の8マスの並び(3^8通り)ごとに
+ * 辺の上だけでどう打たれても返らない石をあらかじめ表にしておき，
+ * 4辺の表引きの結果を上の繰り返しの初期値にする．
+ *
+ * 辺の並びの番号はEgaroucidの辺の評価(evaluateEdgePattern)と同じく，辺に沿ったi番目のマスが
+ * 自分の石なら0，相手の石なら1，空きなら2として 3^i の重みで足したもの．
+ *
+ * 表は最初に一度だけ計算し，探索中はビット演算と表引きだけで配列の確保はしない．
+ */
+public class Stability {
+
+    private static final long NOT_FILE_A = 0xfefefefefefefefeL;
+    private static final long NOT_FILE_H = 0x7f7f7f7f7f7f7f7fL;
+
+    // 方向ごとに片側が盤外になるマス
+    private static final long EDGE_H = 0x8181818181818181L; // 左右の端の列
+    private static final long EDGE_V = 0xff000000000000ffL; // 上下の端の行
+    private static final long EDGE_D = 0xff818181818181ffL; // 盤の外周 (斜め方向)
+
+    private static final long FILE_A = 0x0101010101010101L;
+    private static final int EDGE_PATTERNS = 6561; // 3^8
+
+    // 辺の並びの番号ごとの，辺の上だけで返らない石 (辺に沿ったi番目のマスをビットiとする)
+    private static final byte[] EDGE_STABILITY = new byte[EDGE_PATTERNS];
+    // 8ビットの石の並びから番号への変換 (ビットiのマスに 3^i を足す)
+    private static final int[] TERNARY = new int[256];
+    // 8ビットの並びをA列(x = 0)のマスに置き直したもの
+    private static final long[] FILE_A_BITS = new long[256];
+    static {
+        for (int bits = 0; bits < 256; bits++) {
+            int power = 1;
+            for (int i = 0; i < 8; i++) {
+                if ((bits & (1 << i)) != 0) {
+                    TERNARY[bits] += power;
+                    FILE_A_BITS[bits] |= 1L << (i * 8);
+                }
+                power *= 3;
+            }
+        }
+        boolean[] computed = new boolean[EDGE_PATTERNS];
+        for (int p = 0; p < 256; p++) {
+            for (int o = 0; o < 256; o++) {
+                if ((p & o) == 0) {
+                    computeEdgeStability(p, o, computed);
+                }
+            }
+        }
+    }
+
+    // 斜めの線 (右下がり15本，右上がり15本)
+    private static final long[] DIAGONALS = new long[15];
+    private static final long[] ANTI_DIAGONALS = new long[15];
+    static {
+        for (int square = 0; square < 64; square++) {
+            int x = square & 7;
+            int y = square >>> 3;
+            DIAGONALS[x - y + 7] |= 1L << square;
+            ANTI_DIAGONALS[x + y] |= 1L << square;
+        }
+    }
+
+    private Stability() {
+    }
+
+    // 石pの側の確定石のマスクを返す．oは相手側の石．
+    public static long stableDiscs(long p, long o) {
+        long filled = p | o;
+        long edgeStable = edgeStableDiscs(p, o);
+
+        // 各方向について，線が埋まっているか片側が盤外のマス
+        long protectedH = fullRows(filled) | EDGE_H;
+        long protectedV = fullColumns(filled) | EDGE_V;
+        long protectedD = fullLines(filled, DIAGONALS) | EDGE_D;
+        long protectedA = fullLines(filled, ANTI_DIAGONALS) | EDGE_D;
+
+        long stable = edgeStable;
+        while (true) {
+            long h = protectedH | ((stable << 1) & NOT_FILE_A) | ((stable >>> 1) & NOT_FILE_H);
+            long v = protectedV | (stable << 8) | (stable >>> 8);
+            long d = protectedD | ((stable << 9) & NOT_FILE_A) | ((stable >>> 9) & NOT_FILE_H);
+            long a = protectedA | ((stable << 7) & NOT_FILE_H) | ((stable >>> 7) & NOT_FILE_A);
+            long next = edgeStable | (p & h & v & d & a);
+            if (next == stable) {
+                return stable;
+            }
+            stable = next;
+        }
+    }
+
+    // 石pの側の確定石の数を返す．
+    public static int countStableDiscs(long p, long o) {
+        return Long.bitCount(stableDiscs(p, o));
+    }
+
+    // 石pの側の，辺の上にある確定石のマスクを返す (4辺の表引きだけで求める)．
+    public static long edgeStableDiscs(long p, long o) {
+        long stable = EDGE_STABILITY[edgeIndex((int) p & 0xff, (int) o & 0xff)] & 0xffL;
+        stable |= (EDGE_STABILITY[edgeIndex((int) (p >>> 56), (int) (o >>> 56))] & 0xffL) << 56;
+        stable |= FILE_A_BITS[EDGE_STABILITY[edgeIndex(column(p), column(o))] & 0xff];
+        stable |= FILE_A_BITS[EDGE_STABILITY[edgeIndex(column(p >>> 7), column(o >>> 7))] & 0xff] << 7;
+        return stable & p;
+    }
+
+    // 石pの側の，辺の上にある確定石の数を返す．
+    public static int countEdgeStableDiscs(long p, long o) {
+        return Long.bitCount(edgeStableDiscs(p, o));
+    }
+
+    // 辺に沿った自分の石・相手の石の並び(各8ビット)から，辺の並びの番号を求める．
+    public static int edgeIndex(int p, int o) {
+        // 全部空きなら 2 * (3^0 + ... + 3^7) = 6560 で，石があるマスはそこから自分2・相手1を引く
+        return EDGE_PATTERNS - 1 - 2 * TERNARY[p] - TERNARY[o];
+    }
+
+    // A列(x = 0)の8マスを，y座標をビット番号とする8ビットの並びにする．
+    private static int column(long b) {
+        return (int) (((b & FILE_A) * 0x0102040810204080L) >>> 56);
+    }
+
+    // 辺の並び(p, o)で辺の上だけでどう打たれても返らない石を求め，表に書き込む．
+    // どちらの色がどの空きマスに置いても(辺の外の石で合法になる手も含めて)返らず，
+    // 置いた後の並びでも返らない石だけを残す．
+    private static int computeEdgeStability(int p, int o, boolean[] computed) {
+        int index = edgeIndex(p, o);
+        if (computed[index]) {
+            return EDGE_STABILITY[index] & 0xff;
+        }
+        int stable = p | o;
+        int empty = ~stable & 0xff;
+        for (int e = empty; e != 0 && stable != 0; e &= e - 1) {
+            int move = e & -e;
+            int flipped = edgeFlips(p, o, move);
+            stable &= ~flipped & computeEdgeStability(p | move | flipped, o & ~flipped, computed);
+            flipped = edgeFlips(o, p, move);
+            stable &= ~flipped & computeEdgeStability(p & ~flipped, o | move | flipped, computed);
+        }
+        EDGE_STABILITY[index] = (byte) stable;
+        computed[index] = true;
+        return stable;
+    }
+
+    // 辺の並びでpの側がmoveに置いたときに返る石
+    private static int edgeFlips(int p, int o, int move) {
+        int flipped = 0;
+        int line = 0;
+        for (int cur = move << 1; (cur & 0xff) != 0 && (cur & o) != 0; cur <<= 1) {
+            line |= cur;
+            if (((cur << 1) & p) != 0) {
+                flipped |= line;
+            }
+        }
+        line = 0;
+        for (int cur = move >>> 1; cur != 0 && (cur & o) != 0; cur >>>= 1) {
+            line |= cur;
+            if (((cur >>> 1) & p) != 0) {
+                flipped |= line;
+            }
+        }
+        return flipped;
+    }
+
+    // 全部埋まっている行のマス
+    private static long fullRows(long filled) {
+        long h = filled;
+        h &= h >>> 1;
+        h &= h >>> 2;
+        h &= h >>> 4; // 各行のx = 0のビットに，その行が埋まっているかが残る
+        return (h & 0x0101010101010101L) * 0xff;
+    }
+
+    // 全部埋まっている列のマス
+    private static long fullColumns(long filled) {
+        long v = filled;
+        v &= v >>> 8;
+        v &= v >>> 16;
+        v &= v >>> 32; // y = 0の行に，その列が埋まっているかが残る
+        return (v & 0xff) * 0x0101010101010101L;
+    }
+
+    // linesのうち全部埋まっている線のマス
+    private static long fullLines(long filled, long[] lines) {
+        long full = 0;
+        for (long line : lines) {
+            if ((filled & line) == line) {
+                full |= line;
+            }
+        }
+        return full;
+    }
+}
@@ -0,0 +1,128 @@
+package j2.review02;
+
+/**
+ * TimeManager - 反復深化探索の持ち時間管理
+ *
+ * 1手ごとに空きマス数(局面の進行度)と合法手数から使ってよい時間(予算)を決め，
+ * 反復の結果から次の反復にかかる時間を予測して，予算や上限を超えそうなら
+ * 次の反復を始めないように判断する．
+ *
+ * - 序盤は浅い読みでも差がつきにくいので予算を少なめに，終盤ほど多めにする
+ * - 最善手が反復ごとに変わるときは予算を延ばし，安定しているときは縮める
+ * - 次の反復の時間は「直前の反復の時間 × 直前2回の時間比(有効分岐数)」で見積もる
+ * - 上限(hardLimit)を超えたら探索中でも打ち切らせる
+ */
+public class TimeManager {
+
+    private static final double OPENING_RATIO = 0.5;  // 空き44以上
+    private static final double MIDGAME_RATIO = 0.75; // 空き25-43
+    private static final double ENDGAME_RATIO = 0.85; // 空き24以下
+    private static final double UNSTABLE_EXTENSION = 1.25; // 最善手が変わったときの延長率
+    private static final double STABLE_REDUCTION = 0.9;    // 最善手が続いたときの短縮率
+    private static final int STABLE_ITERATIONS = 3;
+    private static final double MIN_GROWTH = 1.5;
+    private static final double MAX_GROWTH = 8.0;
+    private static final double DEFAULT_GROWTH = 4.0;
+
+    private final MoveClock clock;
+    private final long hardLimit; // この時間を超えたら探索を打ち切る
+    private final boolean wallTime; // CPU時間ではなく実時間で測るか
+
+    private long origin; // startMove()時点の時計の値
+    private long budget; // この手で使ってよい時間
+    private long iterationStart;
+    private long lastIterationTime;
+    private long prevIterationTime;
+    private int lastBestMove;
+    private int stableCount;
+
+    // 上限hardLimit(ナノ秒)の時間管理を生成する．
+    // wallTimeがtrueの場合は実時間で，falseの場合は呼び出しスレッドのCPU時間で測る．
+    public TimeManager(MoveClock clock, long hardLimit, boolean wallTime) {
+        this.clock = clock;
+        this.hardLimit = hardLimit;
+        this.wallTime = wallTime;
+    }
+
+    // 新しい手の計算を始める．
+    public void startMove(int empties, int legalMoves) {
+        origin = now();
+        iterationStart = 0;
+        lastIterationTime = 0;
+        prevIterationTime = 0;
+        lastBestMove = -1;
+        stableCount = 0;
+
+        if (legalMoves <= 1) {
+            // 打てる手が1つなら読む必要はない
+            budget = 0;
+            return;
+        }
+        double ratio = empties >= 44 ? OPENING_RATIO : empties >= 25 ? MIDGAME_RATIO : ENDGAME_RATIO;
+        budget = Math.min(hardLimit, (long) (AI.TIME_LIMIT * ratio));
+    }
+
+    // この手の計算を始めてからの経過時間を返す．
+    public long elapsed() {
+        return now() - origin;
+    }
+
+    // この手で使ってよい時間を返す．
+    public long getBudget() {
+        return budget;
+    }
+
+    // 探索を打ち切る上限の時間を返す．
+    public long getHardLimit() {
+        return hardLimit;
+    }
+
+    // 上限を超えたか．
+    public boolean isHardLimitReached() {
+        return elapsed() > hardLimit;
+    }
+
+    // 次の反復を始めてよいか．予算を使い切ったか，次の反復が上限を超えそうならfalse．
+    public boolean canStartIteration() {
+        long elapsed = elapsed();
+        if (elapsed >= budget) {
+            return false;
+        }
+        if (elapsed + predictNextIteration() > hardLimit) {
+            return false;
+        }
+        iterationStart = elapsed;
+        return true;
+    }
+
+    // 反復が終わったことを記録する．bestMoveはその反復の最善手のマス番号．
+    public void iterationFinished(int bestMove) {
+        prevIterationTime = lastIterationTime;
+        lastIterationTime = elapsed() - iterationStart;
+
+        if (lastBestMove >= 0 && bestMove != lastBestMove) {
+            budget = Math.min(hardLimit, (long) (budget * UNSTABLE_EXTENSION));
+            stableCount = 0;
+        } else if (++stableCount >= STABLE_ITERATIONS) {
+            budget = (long) (budget * STABLE_REDUCTION);
+        }
+        lastBestMove = bestMove;
+    }
+
+    // 次の反復にかかる時間を予測する．
+    private long predictNextIteration() {
+        if (lastIterationTime == 0) {
+            return 0;
+        }
+        double growth = DEFAULT_GROWTH;
+        if (prevIterationTime > 0) {
+            growth = (double) lastIterationTime / prevIterationTime;
+            growth = Math.max(MIN_GROWTH, Math.min(MAX_GROWTH, growth));
+        }
+        return (long) (lastIterationTime * growth);
+    }
+
+    private long now() {
+        return wallTime ? clock.wallElapsed() : clock.elapsed();
+    }
+}
@@ -0,0 +1,141 @@
+package j2.review02;
+
+import java.util.Arrays;
+
+/**
+ * TranspositionTable - long配列に詰め込んだ置換表
+ *
+ * 1エントリは2つのlong (ハッシュ, データ) で，4エントリ(64バイト)を
+ * 1つのバケットとしてキャッシュラインにそろえる．
+ *
+ * データのビット配置:
+ *   0-31  評価値 (int)
+ *   32-39 深さ
+ *   40-41 境界の種類 + 1 (0のときは空きエントリ)
+ *   42-48 最善手のマス番号 + 1 (0のときは最善手なし)
+ *   49-56 世代 (探索ごとにnewSearch()で進める)
+ *
+ * 置き換えは同じハッシュのエントリがあればそこへ，なければ
+ * 空きエントリ，それもなければ「深さ - 古さ」が最も小さいエントリへ書き込む．
+ * 同じハッシュのエントリは，同じ探索でそれより深く読んだものなら残す
+ * (MPCの浅い探索などで深い結果を消さないため)．最善手のない結果では前の最善手を引き継ぐ．
+ *
+ * 複数スレッドからロックなしで共有できるよう，ハッシュ側のlongには
+ * (ハッシュ ^ データ) を格納する．書き込み途中の壊れたエントリは
+ * 読み出し時にXORが一致しないので単に見つからなかった扱いになる．
+ */
+public class TranspositionTable {
+
+    // 境界の種類
+    public static final int EXACT = 0;
+    public static final int LOWER = 1;
+    public static final int UPPER = 2;
+
+    private static final int BUCKET_ENTRIES = 4;
+    private static final int BUCKET_LONGS = BUCKET_ENTRIES * 2;
+    private static final int AGE_WEIGHT = 4; // 1世代の古さを深さ何手分とみなすか
+
+    private final long[] table;
+    private final long bucketMask;
+    private int age;
+
+    // 約sizeMBメガバイトの置換表を生成する．バケット数は2の冪に切り下げる．
+    public TranspositionTable(int sizeMB) {
+        long buckets = Long.highestOneBit(Math.max(1L, (long) sizeMB * 1024 * 1024 / (BUCKET_LONGS * 8)));
+        this.table = new long[(int) (buckets * BUCKET_LONGS)];
+        this.bucketMask = buckets - 1;
+    }
+
+    // 新しい探索を始める．以前の探索のエントリは置き換えられやすくなる．
+    public void newSearch() {
+        age = (age + 1) & 0xff;
+    }
+
+    // 全エントリを消去する．
+    public void clear() {
+        Arrays.fill(table, 0);
+        age = 0;
+    }
+
+    // 置換表の大きさ(バイト)を返す．
+    public long sizeInBytes() {
+        return (long) table.length * 8;
+    }
+
+    // ハッシュhashのエントリのデータを返す．見つからなければ0．
+    public long probe(long hash) {
+        int base = (int) (hash & bucketMask) * BUCKET_LONGS;
+        for (int i = base; i < base + BUCKET_LONGS; i += 2) {
+            long data = table[i + 1];
+            if (data != 0 && (table[i] ^ data) == hash) {
+                return data;
+            }
+        }
+        return 0;
+    }
+
+    // エントリを書き込む．bestMoveは最善手のマス番号 (なければ-1)．
+    public void store(long hash, int score, int depth, int bound, int bestMove) {
+        int base = (int) (hash & bucketMask) * BUCKET_LONGS;
+        int target = base;
+        int worstPriority = Integer.MAX_VALUE;
+        for (int i = base; i < base + BUCKET_LONGS; i += 2) {
+            long data = table[i + 1];
+            if (data == 0) {
+                target = i;
+                break;
+            }
+            if ((table[i] ^ data) == hash) {
+                if (depth < depth(data) && age(data) == age) {
+                    return;
+                }
+                if (bestMove < 0) {
+                    bestMove = bestMove(data);
+                }
+                target = i;
+                break;
+            }
+            int stale = (age - age(data)) & 0xff;
+            int priority = depth(data) - AGE_WEIGHT * stale;
+            if (priority < worstPriority) {
+                worstPriority = priority;
+                target = i;
+            }
+        }
+        long data = pack(score, depth, bound, bestMove, age);
+        table[target] = hash ^ data;
+        table[target + 1] = data;
+    }
+
+    private static long pack(int score, int depth, int bound, int bestMove, int age) {
+        return (score & 0xffffffffL)
+            | ((long) (depth & 0xff) << 32)
+            | ((long) (bound + 1) << 40)
+            | ((long) (bestMove + 1) << 42)
+            | ((long) age << 49);
+    }
+
+    // データから評価値を取り出す．
+    public static int score(long data) {
+        return (int) data;
+    }
+
+    // データから深さを取り出す．
+    public static int depth(long data) {
+        return (int) (data >>> 32) & 0xff;
+    }
+
+    // データから境界の種類を取り出す．
+    public static int bound(long data) {
+        return ((int) (data >>> 40) & 0x3) - 1;
+    }
+
+    // データから最善手のマス番号を取り出す．なければ-1．
+    public static int bestMove(long data) {
+        return ((int) (data >>> 42) & 0x7f) - 1;
+    }
+
+    private static int age(long data) {
+        return (int) (data >>> 49) & 0xff;
+    }
+}
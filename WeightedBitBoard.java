@@ -0,0 +1,152 @@
+package j2.review02;
+
+import java.util.Arrays;
+
+/**
+ * WeightedBitBoard - マスの重みの合計を色ごとに差分更新するBitBoard
+ *
+ * 生成時にマスごとの重み(マス番号 y * 8 + x の順の64要素)を登録すると，
+ * put/pass/undoのたびに，置いた石と返った石の重みだけを色ごとの合計に足し引きする．
+ * 葉の局面で64マスを走査して重みを足す代わりに，getWeightScore(color)で
+ * 位置評価を定数時間で得られる．
+ *
+ * 重みの表を int[8][8] で持っている場合は，表の向きに合わせて
+ * byRow(表[y][x]の場合)かbyColumn(表[x][y]の場合)でマス番号順の配列に直して渡す．
+ *
+ * undo用に着手ごとの合計を記録するので，探索中に配列の確保はしない
+ * (履歴が足りなくなったときだけ伸ばす)．
+ */
+public class WeightedBitBoard extends BitBoard {
+
+    private static final int INITIAL_HISTORY = 128;
+
+    private final int[] weights; // マス番号ごとの重み (共有するので変更しない)
+    private int blackSum;        // 黒石のあるマスの重みの合計
+    private int whiteSum;        // 白石のあるマスの重みの合計
+
+    // 着手前の合計 (undoで戻す)
+    private int[] historyBlack;
+    private int[] historyWhite;
+    private int historySize;
+
+    // Boardの局面をコピーし，マス番号ごとの重みweightsを登録して生成する．
+    public WeightedBitBoard(Board board, int[] weights) {
+        super(board);
+        this.weights = weights;
+        this.historyBlack = new int[INITIAL_HISTORY];
+        this.historyWhite = new int[INITIAL_HISTORY];
+        computeSums();
+    }
+
+    // 初期局面に，マス番号ごとの重みweightsを登録して生成する．
+    public WeightedBitBoard(int[] weights) {
+        super();
+        this.weights = weights;
+        this.historyBlack = new int[INITIAL_HISTORY];
+        this.historyWhite = new int[INITIAL_HISTORY];
+        computeSums();
+    }
+
+    // WeightedBitBoardを履歴ごとコピーして生成する．重みの表は共有する．
+    public WeightedBitBoard(WeightedBitBoard other) {
+        super(other);
+        this.weights = other.weights;
+        this.blackSum = other.blackSum;
+        this.whiteSum = other.whiteSum;
+        this.historyBlack = other.historyBlack.clone();
+        this.historyWhite = other.historyWhite.clone();
+        this.historySize = other.historySize;
+    }
+
+    // 表[y][x]の形の重みを，マス番号順の配列にする．
+    public static int[] byRow(int[][] table) {
+        int[] weights = new int[64];
+        for (int square = 0; square < 64; square++) {
+            weights[square] = table[square >>> 3][square & 7];
+        }
+        return weights;
+    }
+
+    // 表[x][y]の形の重みを，マス番号順の配列にする．
+    public static int[] byColumn(int[][] table) {
+        int[] weights = new int[64];
+        for (int square = 0; square < 64; square++) {
+            weights[square] = table[square & 7][square >>> 3];
+        }
+        return weights;
+    }
+
+    // 色colorの石があるマスの重みの合計を返す．
+    public int getWeightSum(int color) {
+        return color == 0 ? blackSum : whiteSum;
+    }
+
+    // 色colorの重みの合計から相手の色の重みの合計を引いた値を返す．
+    public int getWeightScore(int color) {
+        return color == 0 ? blackSum - whiteSum : whiteSum - blackSum;
+    }
+
+    // マス番号squareに手番側の石を置き，手番を交代する．
+    @Override
+    public void put(int square) {
+        int mover = getCurrentColor();
+        long before = getPlayer();
+        pushHistory();
+        super.put(square);
+
+        // 着手後は相手側が着手した色になるので，増えた石から置いたマスを除けば返った石
+        long flipped = getOpponent() & ~before & ~(1L << square);
+        int flippedSum = 0;
+        for (long f = flipped; f != 0; f &= f - 1) {
+            flippedSum += weights[Long.numberOfTrailingZeros(f)];
+        }
+        if (mover == 0) {
+            blackSum += weights[square] + flippedSum;
+            whiteSum -= flippedSum;
+        } else {
+            whiteSum += weights[square] + flippedSum;
+            blackSum -= flippedSum;
+        }
+    }
+
+    // パスして手番を交代する．
+    @Override
+    public void pass() {
+        pushHistory();
+        super.pass();
+    }
+
+    // 直前のput/passを取り消す．
+    @Override
+    public void undo() {
+        super.undo();
+        historySize--;
+        blackSum = historyBlack[historySize];
+        whiteSum = historyWhite[historySize];
+    }
+
+    private void pushHistory() {
+        if (historySize == historyBlack.length) {
+            historyBlack = Arrays.copyOf(historyBlack, historySize * 2);
+            historyWhite = Arrays.copyOf(historyWhite, historySize * 2);
+        }
+        historyBlack[historySize] = blackSum;
+        historyWhite[historySize] = whiteSum;
+        historySize++;
+    }
+
+    // 盤面全体から重みの合計を計算する．
+    private void computeSums() {
+        int player = getCurrentColor();
+        long black = player == 0 ? getPlayer() : getOpponent();
+        long white = player == 0 ? getOpponent() : getPlayer();
+        blackSum = 0;
+        whiteSum = 0;
+        for (long b = black; b != 0; b &= b - 1) {
+            blackSum += weights[Long.numberOfTrailingZeros(b)];
+        }
+        for (long w = white; w != 0; w &= w - 1) {
+            whiteSum += weights[Long.numberOfTrailingZeros(w)];
+        }
+    }
+}
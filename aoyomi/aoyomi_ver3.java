@@ -1,18 +1,21 @@
 // BEGIN
 package j2.review02.s24kXXXX;
 
-import java.util.ArrayList;
 import java.util.Random;
 
 import j2.review02.AI;
+import j2.review02.BitBoard;
 import j2.review02.Board;
 import j2.review02.Location;
+import j2.review02.WeightedBitBoard;
 
 // 課題で作成するリバーシAI
 public class MyAI extends AI {
 
 	protected final int depthLimit; // 探索の深さ制限
 	protected final Random random; // 乱数生成器
+	// 残り深さごとの手の並び (探索中に配列を作らないように使い回す)
+	protected final int[][] squareBuffer;
     protected Location result; // 計算結果
     private static final int[][] WEIGHT = {
     	    {1000, -50,  20,   15,   15,  20, -50, 1000},
@@ -24,6 +27,7 @@ public class MyAI extends AI {
     	    {-50, -10000,  -5,  -5,  -5,  -5, -10000, -50},
     	    {1000, -50,  20,   15,   15,  20, -50, 1000},
     	}; //重み
+    private static final int[] SQUARE_WEIGHT = WeightedBitBoard.byRow(WEIGHT); // マス番号順の重み
     
     // 色colorのプレイヤーのリバーシAIを生成する．
     // timeLimitedFlagがtrueの場合，時間制限が設定されている．
@@ -31,20 +35,19 @@ public class MyAI extends AI {
         super(color, timeLimitedFlag);
         this.depthLimit = 9;
         random = new Random();
+        squareBuffer = new int[depthLimit + 1][64];
     }
 
     // 局面boardを評価する．
-    protected int evaluate(Board board) {
+    protected int evaluate(WeightedBitBoard board) {
         int myColor = color;
         int enemyColor = Board.flip(color);
 
         // 手の多さ評価
-        int myMoves = board.enumerateLegalLocations().size();
+        int myMoves = Long.bitCount(board.legalMoves());
 
-        // passして相手番にして手数カウント
-        board.pass();
-        int enemyMoves = board.enumerateLegalLocations().size();
-        board.undo();
+        // 相手番の手数カウント (盤面は変更しない)
+        int enemyMoves = board.mobility(Board.flip(board.getCurrentColor()));
         
         int sumOfStone = board.getCount(myColor) + board.getCount(enemyColor);
 
@@ -59,18 +62,8 @@ public class MyAI extends AI {
         	moveScore = 0; 
         }
         // 位置評価
-        int posScore = 0;
-
-        for (int y = 0; y < 8; y++) {
-            for (int x = 0; x < 8; x++) {
-                int cell = board.get(x, y);
-                if (cell == myColor) {
-                    posScore += WEIGHT[y][x];
-                } else if (cell == enemyColor) {
-                    posScore -= WEIGHT[y][x];
-                }
-            }
-        }
+        // 置いた石と返った石の分だけ盤面側で更新される重みの差
+        int posScore = board.getWeightScore(myColor);
 
         // 合成して返す
         return posScore + moveScore;
@@ -78,30 +71,38 @@ public class MyAI extends AI {
     
     // 葉の局面boardを評価する．
     // 追加の引数として残りの深さremainingDepthを受け取る．
-    protected int evaluateEnd(Board board, int remainingDepth) {
+    protected int evaluateEnd(BitBoard board, int remainingDepth) {
         var c = board.getCount(color);
         var d = c - board.getCount(Board.flip(color));
         return d > 0 ? c + 1000 * remainingDepth : c - 1000 * remainingDepth;
     }
     
-    // マスのリストlocationsの要素をランダムに並べ替える．
-    protected void randomizeLocations(ArrayList<Location> locations) {
-        var copy = new ArrayList<Location>(locations);
-        locations.clear();
-        for (var i = copy.size(); i > 0; i--) {
-            locations.add(copy.remove(random.nextInt(i)));
+    // 合法手のマス番号をランダムな順にsquareBuffer[remainingDepth]に書き，手の数を返す．
+    // 残りの手から1つずつ乱数で選んで前に詰める (配列を作らずにその場で並べ替える)
+    protected int randomSquares(BitBoard board, int remainingDepth) {
+        var squares = squareBuffer[remainingDepth];
+        var count = 0;
+        for (var m = board.legalMoves(); m != 0; m &= m - 1) {
+            squares[count++] = Long.numberOfTrailingZeros(m);
+        }
+        for (var k = 0; k < count; k++) {
+            var j = k + random.nextInt(count - k);
+            var square = squares[j];
+            System.arraycopy(squares, k, squares, k + 1, j - k);
+            squares[k] = square;
         }
+        return count;
     }
 
     // 評価値を最小化する．
     // 引数として局面board，残りの深さremainingDepthを受け取る．
-    protected int minimize(Board board, int remainingDepth, int alpha, int beta) {
+    protected int minimize(WeightedBitBoard board, int remainingDepth, int alpha, int beta) {
         if (remainingDepth == 0) {
             return evaluate(board);
         }
-        var locs = board.enumerateLegalLocations();
-        randomizeLocations(locs);
-        if (locs.size() == 0) {
+        var count = randomSquares(board, remainingDepth);
+        var squares = squareBuffer[remainingDepth];
+        if (count == 0) {
             board.pass();
             var score = board.isLegal() ?
                 maximize(board, remainingDepth - 1, alpha, beta) :
@@ -110,8 +111,8 @@ public class MyAI extends AI {
             return score;
         }
         var min = Integer.MAX_VALUE;
-        for (var i = 0; i < locs.size(); i++) {
-            board.put(locs.get(i));
+        for (var i = 0; i < count; i++) {
+            board.put(squares[i]);
             var score = maximize(board, remainingDepth - 1, alpha, beta);
             board.undo();
             if (score < min) {
@@ -123,7 +124,7 @@ public class MyAI extends AI {
             if (beta<=alpha) {
             	break;
             }
-            if (timeLimitedFlag && remainingDepth >= 4 &&
+            if (isCancelled() || timeLimitedFlag && remainingDepth >= 4 &&
                     getTime() > 0.95 * TIME_LIMIT) {
                 break;
             }
@@ -133,13 +134,13 @@ public class MyAI extends AI {
 
     // 評価値を最大化する．
     // 引数として局面board，残りの深さremainingDepthを受け取る．
-    protected int maximize(Board board, int remainingDepth, int alpha, int beta) {
+    protected int maximize(WeightedBitBoard board, int remainingDepth, int alpha, int beta) {
         if (remainingDepth == 0) {
             return evaluate(board);
         }
-        var locs = board.enumerateLegalLocations();
-        randomizeLocations(locs);
-        if (locs.size() == 0) {
+        var count = randomSquares(board, remainingDepth);
+        var squares = squareBuffer[remainingDepth];
+        if (count == 0) {
             board.pass();
             var score = board.isLegal() ?
                 minimize(board, remainingDepth - 1, alpha, beta) :
@@ -148,14 +149,14 @@ public class MyAI extends AI {
             return score;
         }
         var max = Integer.MIN_VALUE;
-        for (var i = 0; i < locs.size(); i++) {
-            board.put(locs.get(i));
+        for (var i = 0; i < count; i++) {
+            board.put(squares[i]);
             var score = minimize(board, remainingDepth - 1, alpha, beta);
             board.undo();
             if (score > max) {
                 max = score;
                 if (remainingDepth == depthLimit) {
-                    result = locs.get(i);
+                    result = BitBoard.location(squares[i]);
                 }
             }
             if (max > alpha) {
@@ -164,7 +165,7 @@ public class MyAI extends AI {
             if (beta <= alpha) {
             	break;
             }
-            if (timeLimitedFlag && remainingDepth >= 4 &&
+            if (isCancelled() || timeLimitedFlag && remainingDepth >= 4 &&
                     getTime() > 0.95 * TIME_LIMIT) {
                 break;
             }
@@ -175,7 +176,8 @@ public class MyAI extends AI {
     // 局面boardに対する手を計算し，石を置くマスの座標を返す．
     // 評価値に石数を用いたMinimax法によって手を選ぶ．
     @Override
-    public Location compute(Board board) {
+    public Location compute(Board original) {
+        WeightedBitBoard board = new WeightedBitBoard(original, SQUARE_WEIGHT);
         result = null;
         maximize(board, depthLimit, Integer.MIN_VALUE, Integer.MAX_VALUE);
         return result;
@@ -1,18 +1,21 @@
 // BEGIN
 package j2.review02.s24k0134;
 
-import java.util.ArrayList;
 import java.util.Random;
 
 import j2.review02.AI;
+import j2.review02.BitBoard;
 import j2.review02.Board;
 import j2.review02.Location;
+import j2.review02.WeightedBitBoard;
 
 // 課題で作成するリバーシAI
 public class MyAI extends AI {
 
 	 protected final int depthLimit; // 探索の深さ制限
 	 protected final Random random; // 乱数生成器
+	 // 残り深さごとの手の並び (探索中に配列を作らないように使い回す)
+	 protected final int[][] squareBuffer;
 	 protected Location result; // 計算結果
     // 色colorのプレイヤーのリバーシAIを生成する．
     // timeLimitedFlagがtrueの場合，時間制限が設定されている．
@@ -20,6 +23,7 @@ public class MyAI extends AI {
         super(color, timeLimitedFlag);
         this.depthLimit = 6;
         random = new Random();
+        squareBuffer = new int[depthLimit + 1][64];
     }
     private static final int MOBILITY_WEIGHT = 10;//可動性（Mobility）とは？
     											//可動性＝その局面で指せる合法手数の多さ
@@ -33,39 +37,21 @@ public class MyAI extends AI {
     	{11, 14, 9, 7, 7, 9, 14, 11},
     	{15, 11, 9, 9, 9, 9, 11, 15}
     };
+    private static final int[] SQUARE_WEIGHT = WeightedBitBoard.byColumn(CELL_WEIGHT); // マス番号順の重み
     
  // 局面boardを評価する．
-    protected int evaluate(Board board) {
-    	var score = 0;
-    	//位置重み
-        for (int x = 0; x < 8; x++) {
-            for (int y = 0; y < 8; y++) {
-                int c = board.get(x, y);
-                if (c == color) {
-                    score += CELL_WEIGHT[x][y];
-                } else if (c == Board.flip(color)) {
-                    score -= CELL_WEIGHT[x][y];
-                }
-            }
-        }
+    protected int evaluate(WeightedBitBoard board) {
+    	//位置重み (着手のたびに盤面側で更新される)
+    	var score = board.getWeightScore(color);
         //合法手数差
 		//序盤〜中盤：合法手は 2〜10 個
 		//終盤：誰でも読める（探索が届く）
 		//「探索のため」にモビリティを使うわけではない。
 		//minimax の計算量とは無関係
         
-        Board tmp = new Board(board);
-        int myMoves, oppMoves;
-        if (tmp.getCurrentColor() == color) {
-            myMoves = tmp.enumerateLegalLocations().size();
-            tmp.pass();
-            oppMoves = tmp.enumerateLegalLocations().size();
-        } else {
-            // 盤面の手番が相手のとき
-            oppMoves = tmp.enumerateLegalLocations().size();
-            tmp.pass();
-            myMoves = tmp.enumerateLegalLocations().size();
-        }
+        // 盤面の手番に関係なく，盤面をコピーせずに数える
+        int myMoves = board.mobility(color);
+        int oppMoves = board.mobility(Board.flip(color));
         score += MOBILITY_WEIGHT * (myMoves - oppMoves);
         
         return score;
@@ -73,30 +59,38 @@ public class MyAI extends AI {
 
     // 葉の局面boardを評価する．
     // 追加の引数として残りの深さremainingDepthを受け取る．
-    protected int evaluateEnd(Board board, int remainingDepth) {
+    protected int evaluateEnd(BitBoard board, int remainingDepth) {
         var c = board.getCount(color);
         var d = c - board.getCount(Board.flip(color));
         return d > 0 ? c + 1000 * remainingDepth : c - 1000 * remainingDepth;
     }
 
-    // マスのリストlocationsの要素をランダムに並べ替える．
-    protected void randomizeLocations(ArrayList<Location> locations) {
-        var copy = new ArrayList<Location>(locations);
-        locations.clear();
-        for (var i = copy.size(); i > 0; i--) {
-            locations.add(copy.remove(random.nextInt(i)));
+    // 合法手のマス番号をランダムな順にsquareBuffer[remainingDepth]に書き，手の数を返す．
+    // 残りの手から1つずつ乱数で選んで前に詰める (配列を作らずにその場で並べ替える)
+    protected int randomSquares(BitBoard board, int remainingDepth) {
+        var squares = squareBuffer[remainingDepth];
+        var count = 0;
+        for (var m = board.legalMoves(); m != 0; m &= m - 1) {
+            squares[count++] = Long.numberOfTrailingZeros(m);
+        }
+        for (var k = 0; k < count; k++) {
+            var j = k + random.nextInt(count - k);
+            var square = squares[j];
+            System.arraycopy(squares, k, squares, k + 1, j - k);
+            squares[k] = square;
         }
+        return count;
     }
 
     // 評価値を最小化する．
     // 引数として局面board，残りの深さremainingDepthを受け取る．
-    protected int minimize(Board board, int remainingDepth, int alpha, int beta) {
+    protected int minimize(WeightedBitBoard board, int remainingDepth, int alpha, int beta) {
         if (remainingDepth == 0) {
             return evaluate(board);
         }
-        var locs = board.enumerateLegalLocations();
-        randomizeLocations(locs);
-        if (locs.size() == 0) {
+        var count = randomSquares(board, remainingDepth);
+        var squares = squareBuffer[remainingDepth];
+        if (count == 0) {
             board.pass();
             var score = board.isLegal() ?
                 maximize(board, remainingDepth - 1, alpha, beta) :
@@ -105,8 +99,8 @@ public class MyAI extends AI {
             return score;
         }
         var min = Integer.MAX_VALUE;
-        for (var i = 0; i < locs.size(); i++) {
-            board.put(locs.get(i));
+        for (var i = 0; i < count; i++) {
+            board.put(squares[i]);
             var score = maximize(board, remainingDepth - 1, alpha, beta);
             board.undo();
             
@@ -118,7 +112,7 @@ public class MyAI extends AI {
 //            if (score < min) {
 //                min = score;
 //            }
-            if (timeLimitedFlag && remainingDepth >= 4 &&
+            if (isCancelled() || timeLimitedFlag && remainingDepth >= 4 &&
                     getTime() > 0.95 * TIME_LIMIT) {
                 break;
             }
@@ -128,13 +122,13 @@ public class MyAI extends AI {
 
     // 評価値を最大化する．
     // 引数として局面board，残りの深さremainingDepthを受け取る．
-    protected int maximize(Board board, int remainingDepth, int alpha, int beta) {
+    protected int maximize(WeightedBitBoard board, int remainingDepth, int alpha, int beta) {
         if (remainingDepth == 0) {
             return evaluate(board);
         }
-        var locs = board.enumerateLegalLocations();
-        randomizeLocations(locs);
-        if (locs.size() == 0) {
+        var count = randomSquares(board, remainingDepth);
+        var squares = squareBuffer[remainingDepth];
+        if (count == 0) {
             board.pass();
             var score = board.isLegal() ?
                 minimize(board, remainingDepth - 1, alpha, beta) :
@@ -144,14 +138,14 @@ public class MyAI extends AI {
         }
         var max = Integer.MIN_VALUE;
         
-        for (var i = 0; i < locs.size(); i++) {
-            board.put(locs.get(i));
+        for (var i = 0; i < count; i++) {
+            board.put(squares[i]);
             var score = minimize(board, remainingDepth - 1, alpha, beta);
             board.undo();
             if (score > max) {
                 max = score;
                 if (remainingDepth == depthLimit) {
-                    result = locs.get(i);
+                    result = BitBoard.location(squares[i]);
                 }
             }
             alpha = Math.max(alpha, max); // α更新
@@ -159,7 +153,7 @@ public class MyAI extends AI {
             if (alpha >= beta) { // ★枝刈り！
                 break;
             }
-            if (timeLimitedFlag && remainingDepth >= 4 &&
+            if (isCancelled() || timeLimitedFlag && remainingDepth >= 4 &&
                     getTime() > 0.95 * TIME_LIMIT) {
                 break;
             }
@@ -169,7 +163,8 @@ public class MyAI extends AI {
 
     // 局面boardに対する手を計算し，石を置くマスの座標を返す．
     @Override
-    public Location compute(Board board) {
+    public Location compute(Board original) {
+        WeightedBitBoard board = new WeightedBitBoard(original, SQUARE_WEIGHT);
         result = null;
         maximize(board, depthLimit, Integer.MIN_VALUE, Integer.MAX_VALUE);
         return result;
@@ -1,10 +1,10 @@
 package j2.review02;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 import j2.review02.Board;
 import j2.review02.Location;
 
-import java.lang.management.ManagementFactory;
-
 // リバーシAIの抽象クラス
 public abstract class AI {
 
@@ -12,6 +12,9 @@ public abstract class AI {
 
     protected final int color; // プレイヤーの色
     protected final boolean timeLimitedFlag; // 時間制限が設定されているか
+    protected final MoveClock clock = new MoveClock(); // 現在の手の計算時間を測る時計
+    // 現在の手の打ち切り要求 (なければnull)
+    private final AtomicReference<CancellationToken> token = new AtomicReference<>();
 
     // 色colorのプレイヤーのリバーシAIを生成する．
     // timeLimitedFlagがtrueの場合，時間制限が設定されている．
@@ -20,13 +23,38 @@ public abstract class AI {
         this.timeLimitedFlag = timeLimitedFlag;
     }
 
+    // 現在の手の計算を開始したことを記録する．
+    // スレッドを使い回して手を計算する場合は，computeを呼ぶ直前に同じスレッドで呼ぶ．
+    // 呼ばない場合はスレッドの開始が計算の開始とみなされる．
+    public void startMove() {
+        clock.start();
+    }
+
     // 現在の手の計算の開始以降に経過した時間(ナノ秒)を返す．
     public long getTime() {
-        return ManagementFactory.getThreadMXBean().
-            getCurrentThreadUserTime();
+        return clock.elapsed();
     }
 
     // 局面boardに対する手を計算し，石を置くマスの座標を返す．
     public abstract Location compute(Board board);
 
+    // tokenで打ち切りを要求できるようにして局面boardに対する手を計算する．
+    // 探索ループでisCancelled()を調べるAIは，打ち切られるとそれまでの最善手を返す．
+    // 時間超過した前の計算が後から終わっても次の手のtokenを消さないよう，
+    // 自分のtokenが残っているときだけ外す．
+    public Location compute(Board board, CancellationToken token) {
+        this.token.set(token);
+        try {
+            return compute(board);
+        } finally {
+            this.token.compareAndSet(token, null);
+        }
+    }
+
+    // 現在の手の計算の打ち切りが要求されたか．探索の各ノードから呼んでよい．
+    protected boolean isCancelled() {
+        CancellationToken t = token.get();
+        return t != null && t.isCancelled();
+    }
+
 }
\ No newline at end of file
@@ -1,10 +1,10 @@
 // BEGIN
 package j2.review02;
 
-import java.util.ArrayList;
 import java.util.Random;
 
 import j2.review02.AI;
+import j2.review02.BitBoard;
 import j2.review02.Board;
 import j2.review02.Location;
 
@@ -12,6 +12,8 @@ import j2.review02.Location;
 public class okkuVer1 extends AI {
 	protected final int depthLimit = 8; // 探索の深さ制限
     protected final Random random; // 乱数生成器
+    // 残り深さごとの手の並び (探索中に配列を作らないように使い回す)
+    protected final int[][] squareBuffer = new int[depthLimit + 1][64];
     protected Location result; // 計算結果
 
     // 色colorのプレイヤーのリバーシAIを生成する．
@@ -21,39 +23,46 @@ public class okkuVer1 extends AI {
         random = new Random();
     }
 
-    protected int evaluate(Board board) {
+    protected int evaluate(BitBoard board) {
     	int score = 0;
-    	ArrayList<Location> myMoves = board.enumerateLegalLocations();
-        board.pass();
-        ArrayList<Location> oppMoves = board.enumerateLegalLocations();
-        board.undo();
-        int mobilityScore = myMoves.size() - oppMoves.size();
+    	int myMoves = Long.bitCount(board.legalMoves());
+        int oppMoves = board.mobility(Board.flip(board.getCurrentColor()));
+        int mobilityScore = myMoves - oppMoves;
         
         score += mobilityScore;
         return score;
     }
     
-    protected int evaluateEnd(Board board, int remainingDepth) {
+    protected int evaluateEnd(BitBoard board, int remainingDepth) {
         var c = board.getCount(color);
         var d = c - board.getCount(Board.flip(color));
         return d > 0 ? c + 1000 * remainingDepth : c - 1000 * remainingDepth;
     }
     
-    protected void randomizeLocations(ArrayList<Location> locations) {
-        var copy = new ArrayList<Location>(locations);
-        locations.clear();
-        for (var i = copy.size(); i > 0; i--) {
-            locations.add(copy.remove(random.nextInt(i)));
+    // 合法手のマス番号をランダムな順にsquareBuffer[remainingDepth]に書き，手の数を返す．
+    // 残りの手から1つずつ乱数で選んで前に詰める (配列を作らずにその場で並べ替える)
+    protected int randomSquares(BitBoard board, int remainingDepth) {
+        var squares = squareBuffer[remainingDepth];
+        var count = 0;
+        for (var m = board.legalMoves(); m != 0; m &= m - 1) {
+            squares[count++] = Long.numberOfTrailingZeros(m);
         }
+        for (var k = 0; k < count; k++) {
+            var j = k + random.nextInt(count - k);
+            var square = squares[j];
+            System.arraycopy(squares, k, squares, k + 1, j - k);
+            squares[k] = square;
+        }
+        return count;
     }
     
-    protected int minimize(Board board, int remainingDepth, int alpha, int beta) {
+    protected int minimize(BitBoard board, int remainingDepth, int alpha, int beta) {
         if (remainingDepth == 0) {
             return evaluate(board);
         }
-        var locs = board.enumerateLegalLocations();
-        randomizeLocations(locs);
-        if (locs.size() == 0) { 
+        var count = randomSquares(board, remainingDepth);
+        var squares = squareBuffer[remainingDepth];
+        if (count == 0) { 
             board.pass();
             var score = board.isLegal() ?
                 maximize(board, remainingDepth - 1, alpha, beta) :
@@ -62,8 +71,8 @@ public class okkuVer1 extends AI {
             return score;
         }
         var min = Integer.MAX_VALUE;
-        for (var i = 0; i < locs.size(); i++) {
-            board.put(locs.get(i));
+        for (var i = 0; i < count; i++) {
+            board.put(squares[i]);
             var score = maximize(board, remainingDepth - 1, alpha, beta);
             board.undo();
             if (score < min) {
@@ -75,7 +84,7 @@ public class okkuVer1 extends AI {
             if (min < beta) {
                 beta = min;
             }
-            if (timeLimitedFlag && remainingDepth >= 4 &&
+            if (isCancelled() || timeLimitedFlag && remainingDepth >= 4 &&
                     getTime() > 0.95 * TIME_LIMIT) {
                 break;
             }
@@ -83,13 +92,13 @@ public class okkuVer1 extends AI {
         return min;
     }
     
-    protected int maximize(Board board, int remainingDepth, int alpha, int beta) {
+    protected int maximize(BitBoard board, int remainingDepth, int alpha, int beta) {
         if (remainingDepth == 0) {
             return evaluate(board);
         }
-        var locs = board.enumerateLegalLocations();
-        randomizeLocations(locs);
-        if (locs.size() == 0) {
+        var count = randomSquares(board, remainingDepth);
+        var squares = squareBuffer[remainingDepth];
+        if (count == 0) {
             board.pass();
             var score = board.isLegal() ?
                 minimize(board, remainingDepth - 1, alpha, beta) :
@@ -98,14 +107,14 @@ public class okkuVer1 extends AI {
             return score;
         }
         var max = Integer.MIN_VALUE;
-        for (var i = 0; i < locs.size(); i++) {
-            board.put(locs.get(i));
+        for (var i = 0; i < count; i++) {
+            board.put(squares[i]);
             var score = minimize(board, remainingDepth - 1, alpha, beta);
             board.undo();
             if (score > max) {
                 max = score;
                 if (remainingDepth == depthLimit) {
-                    result = locs.get(i);
+                    result = BitBoard.location(squares[i]);
                 }
             }
             if (max >= beta) {
@@ -115,7 +124,7 @@ public class okkuVer1 extends AI {
             	alpha = max;
             }
             
-            if (timeLimitedFlag && remainingDepth >= 4 &&
+            if (isCancelled() || timeLimitedFlag && remainingDepth >= 4 &&
                     getTime() > 0.95 * TIME_LIMIT) {
                 break;
             }
@@ -125,7 +134,8 @@ public class okkuVer1 extends AI {
     
     // 局面boardに対する手を計算し，石を置くマスの座標を返す．
     @Override
-    public Location compute(Board board) {
+    public Location compute(Board original) {
+    	BitBoard board = new BitBoard(original);
     	result = null;
         maximize(board, depthLimit, Integer.MIN_VALUE, Integer.MAX_VALUE);
         return result;
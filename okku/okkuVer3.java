@@ -5,8 +5,11 @@ import java.util.ArrayList;
 import java.util.Random;
 
 import j2.review02.AI;
+import j2.review02.BitBoard;
 import j2.review02.Board;
 import j2.review02.Location;
+import j2.review02.WeightedBitBoard;
+import j2.review02.MoveOrdering;
 
 // 課題で作成するリバーシAI
 public class okkuVer3 extends AI {
@@ -14,6 +17,10 @@ public class okkuVer3 extends AI {
     protected final Random random; // 乱数生成器
     protected Location result; // 計算結果
     protected int searchCount;
+    // ヒストリー・キラー手による手の並べ替え
+    protected final MoveOrdering ordering = new MoveOrdering();
+    // 残り深さごとの手の並び (探索中に配列を作らないように使い回す)
+    protected final int[][] squareBuffer = new int[depthLimit + 1][64];
     private static final int[][] WEIGHTS = {
             { 30, -12, 0, -1, -1, 0, -12, 30 },
             { -12, -15, -3, -3, -3, -3, -15, -12 },
@@ -24,6 +31,7 @@ public class okkuVer3 extends AI {
             { -12, -15, -3, -3, -3, -3, -15, -12 },
             { 30, -12, 0, -1, -1, 0, -12, 30 }
         };
+    private static final int[] SQUARE_WEIGHTS = WeightedBitBoard.byColumn(WEIGHTS); // マス番号順の重み
 
     // 色colorのプレイヤーのリバーシAIを生成する．
     // timeLimitedFlagがtrueの場合，時間制限が設定されている．
@@ -32,47 +40,13 @@ public class okkuVer3 extends AI {
         random = new Random();
     }
     
-    protected int getFrontierScore(Board board, int myColor) {
+    // 開放石(空きマスに隣接する石)の数の差 (相手 - 自分) を返す
+    protected int getFrontierScore(BitBoard board, int myColor) {
         int oppColor = Board.flip(myColor);
-        int myFrontier = 0;
-        int oppFrontier = 0;
-
-        // 8方向の差分
-        int[] dr = {-1, -1, -1, 0, 0, 1, 1, 1};
-        int[] dc = {-1, 0, 1, -1, 1, -1, 0, 1};
-
-        for (int r = 0; r < 8; r++) {
-            for (int c = 0; c < 8; c++) {
-                int piece = board.get(r, c);
-                if (piece != -1) {
-                    boolean isFrontier = false;
-                    // 8方向をチェック
-                    for (int i = 0; i < 8; i++) {
-                        int nr = r + dr[i];
-                        int nc = c + dc[i];
-                        // 盤外チェック
-                        if (nr >= 0 && nr < 8 && nc >= 0 && nc < 8) {
-                            // 隣接するマスが空きマスかチェック
-                            if (board.get(nr, nc) == -1) {
-                                isFrontier = true;
-                                break; // 1つでも空きマスに接していれば開放石
-                            }
-                        }
-                    }
-                    if (isFrontier) {
-                        if (piece == myColor) {
-                            myFrontier++;
-                        } else {
-                            oppFrontier++;
-                        }
-                    }
-                }
-            }
-        }
-        return oppFrontier - myFrontier;
+        return board.frontier(oppColor) - board.frontier(myColor);
     }
 
-    protected int evaluate(Board board) {
+    protected int evaluate(WeightedBitBoard board) {
     	int score = 0; // 総合スコア
     	int sumStone = board.getCount(color) + board.getCount(Board.flip(color));
     	int posWeight, mobilityWeight, diffWeight;
@@ -103,25 +77,13 @@ public class okkuVer3 extends AI {
     	int frontierScore = getFrontierScore(board, color);
     	score += frontierScore * frontierWeight;
     	
-    	int posScore = 0;
-        for (int y = 0; y < 8; y++) {
-            for (int x = 0; x < 8; x++) {
-                int stone = board.get(x, y);
-                if (stone == color) {
-                    posScore += WEIGHTS[x][y];
-                } else if (stone == Board.flip(color)) {
-                    posScore -= WEIGHTS[x][y];
-                }
-            }
-        }
+    	int posScore = board.getWeightScore(color); // 着手のたびに盤面側で更新される重みの差
         
         score += posScore * posWeight;
         
-    	ArrayList<Location> myMoves = board.enumerateLegalLocations();
-        board.pass();
-        ArrayList<Location> oppMoves = board.enumerateLegalLocations();
-        board.undo();
-        int mobilityScore = myMoves.size() - oppMoves.size();
+    	int myMoves = Long.bitCount(board.legalMoves());
+        int oppMoves = board.mobility(Board.flip(board.getCurrentColor()));
+        int mobilityScore = myMoves - oppMoves;
         
         score += mobilityScore * mobilityWeight;
         
@@ -130,7 +92,7 @@ public class okkuVer3 extends AI {
         return score;
     }
     
-    protected int evaluateEnd(Board board, int remainingDepth) {
+    protected int evaluateEnd(BitBoard board, int remainingDepth) {
         var c = board.getCount(color);
         var d = c - board.getCount(Board.flip(color));
         return d > 0 ? c + 1000 * remainingDepth : c - 1000 * remainingDepth;
@@ -145,35 +107,17 @@ public class okkuVer3 extends AI {
     }
     
     // 良い手から探索するようにする
-    protected ArrayList<Location> bestLocations(Board board) {
-    	var locs = board.enumerateLegalLocations();
-    	if (locs.size() == 0) {
-    		return locs;
-    	}
-    	ArrayList<Integer> score = new ArrayList<>();
-        for (var i = 0; i < locs.size(); i++) {
-            board.put(locs.get(i));
-            // 
-            score.add(board.getCount(color) - board.getCount(Board.flip(color)));
-            board.undo();
-        }
-        for (int i = 0; i < locs.size() - 1; i++) {
-            for (int j = i + 1; j < locs.size(); j++) {
-                if (score.get(i) < score.get(j)) {
-                    int tmpScore = score.get(i);
-                    score.set(i, score.get(j));
-                    score.set(j, tmpScore);
-
-                    Location tmpLoc = locs.get(i);
-                    locs.set(i, locs.get(j));
-                    locs.set(j, tmpLoc);
-                }
-            }
+    // ルートでは打った後の相手の着手可能数で，それ以外ではヒストリー・キラー手で並べる
+    protected int bestSquares(BitBoard board, int remainingDepth) {
+        long moves = board.legalMoves();
+        int[] squares = squareBuffer[remainingDepth];
+        if (remainingDepth == depthLimit) {
+            return ordering.orderByMobility(board.getPlayer(), board.getOpponent(), moves, -1, squares);
         }
-        return locs;
+        return ordering.order(moves, -1, depthLimit - remainingDepth, board.getCurrentColor(), squares);
     }
     
-    protected int minimize(Board board, int remainingDepth, int alpha, int beta) {
+    protected int minimize(WeightedBitBoard board, int remainingDepth, int alpha, int beta) {
     	searchCount += 1;
         if (remainingDepth == 0) {
             return evaluate(board);
@@ -181,9 +125,10 @@ public class okkuVer3 extends AI {
 //        var locs = board.enumerateLegalLocations(); 
 //        randomizeLocations(locs);
         
-        var locs = bestLocations(board);
+        var count = bestSquares(board, remainingDepth);
+        var squares = squareBuffer[remainingDepth];
  
-        if (locs.size() == 0) { 
+        if (count == 0) { 
             board.pass();
             var score = board.isLegal() ?
                 maximize(board, remainingDepth - 1, alpha, beta) :
@@ -192,20 +137,21 @@ public class okkuVer3 extends AI {
             return score;
         }
         var min = Integer.MAX_VALUE;
-        for (var i = 0; i < locs.size(); i++) {
-            board.put(locs.get(i));
+        for (var i = 0; i < count; i++) {
+            board.put(squares[i]);
             var score = maximize(board, remainingDepth - 1, alpha, beta);
             board.undo();
             if (score < min) {
                 min = score;
             }
             if (min <= alpha) { 
+                ordering.update(squares[i], depthLimit - remainingDepth, board.getCurrentColor(), remainingDepth);
                 return min;
             }
             if (min < beta) {
                 beta = min;
             }
-            if (timeLimitedFlag && remainingDepth >= 4 &&
+            if (isCancelled() || timeLimitedFlag && remainingDepth >= 4 &&
                     getTime() > 0.95 * TIME_LIMIT) {
 //            	System.out.println("実行時間制限");
                 break;
@@ -214,7 +160,7 @@ public class okkuVer3 extends AI {
         return min;
     }
     
-    protected int maximize(Board board, int remainingDepth, int alpha, int beta) {
+    protected int maximize(WeightedBitBoard board, int remainingDepth, int alpha, int beta) {
     	searchCount += 1;
         if (remainingDepth == 0) {
             return evaluate(board);
@@ -222,8 +168,9 @@ public class okkuVer3 extends AI {
 //        var locs = board.enumerateLegalLocations();
 //        randomizeLocations(locs);
         
-        var locs = bestLocations(board);
-        if (locs.size() == 0) {
+        var count = bestSquares(board, remainingDepth);
+        var squares = squareBuffer[remainingDepth];
+        if (count == 0) {
             board.pass();
             var score = board.isLegal() ?
                 minimize(board, remainingDepth - 1, alpha, beta) :
@@ -232,24 +179,25 @@ public class okkuVer3 extends AI {
             return score;
         }
         var max = Integer.MIN_VALUE;
-        for (var i = 0; i < locs.size(); i++) {
-            board.put(locs.get(i));
+        for (var i = 0; i < count; i++) {
+            board.put(squares[i]);
             var score = minimize(board, remainingDepth - 1, alpha, beta);
             board.undo();
             if (score > max) {
                 max = score;
                 if (remainingDepth == depthLimit) {
-                    result = locs.get(i);
+                    result = BitBoard.location(squares[i]);
                 }
             }
             if (max >= beta) {
+                ordering.update(squares[i], depthLimit - remainingDepth, board.getCurrentColor(), remainingDepth);
                 return max;
             }
             if (max > alpha) {
             	alpha = max;
             }
             
-            if (timeLimitedFlag && remainingDepth >= 4 &&
+            if (isCancelled() || timeLimitedFlag && remainingDepth >= 4 &&
                     getTime() > 0.95 * TIME_LIMIT) {
 //            	System.out.println("実行時間制限");
                 break;
@@ -260,9 +208,11 @@ public class okkuVer3 extends AI {
     
     // 局面boardに対する手を計算し，石を置くマスの座標を返す．
     @Override
-    public Location compute(Board board) {
+    public Location compute(Board original) {
+    	WeightedBitBoard board = new WeightedBitBoard(original, SQUARE_WEIGHTS);
     	result = null;
     	searchCount = 0;
+    	ordering.newSearch();
         maximize(board, depthLimit, Integer.MIN_VALUE, Integer.MAX_VALUE);
 //        System.out.println(searchCount);
         return result;